@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.lua.codeInsight.inspection
+
+import com.intellij.codeHighlighting.HighlightDisplayLevel
+import com.intellij.codeInsight.daemon.HighlightDisplayKey
+import com.intellij.codeInspection.InspectionManager
+import com.intellij.codeInspection.LocalInspectionToolSession
+import com.intellij.codeInspection.ProblemDescriptorUtil
+import com.intellij.codeInspection.ProblemsHolder
+import com.intellij.codeInspection.ex.LocalInspectionToolWrapper
+import com.intellij.concurrency.JobLauncher
+import com.intellij.openapi.application.ReadAction
+import com.intellij.openapi.progress.ProgressIndicator
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.project.DumbService
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.util.Computable
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.profile.codeInspection.InspectionProjectProfileManager
+import com.intellij.psi.PsiDocumentManager
+import com.intellij.psi.PsiManager
+import com.intellij.psi.SyntaxTraverser
+import com.intellij.psi.search.FileTypeIndex
+import com.intellij.psi.search.GlobalSearchScope
+import com.tang.intellij.lua.lang.LuaFileType
+import com.tang.intellij.lua.lang.LuaLanguage
+import com.tang.intellij.lua.psi.LuaPsiFile
+import com.tang.intellij.lua.search.SearchContext
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Runs Lua inspections over many files in batch, rather than on the fly.
+ *
+ * Files are inspected concurrently, each file being a unit of work that idle threads steal from a shared fork-join pool.
+ * Search contexts and recursion guards are thread confined, whilst inferred types and class member tables are shared
+ * between threads via the project's caches. Problems are reported to the consumer as each file completes.
+ */
+class LuaBatchInspectionRunner(
+    private val project: Project,
+    private val tools: List<LocalInspectionToolWrapper> = getEnabledTools(project)
+) {
+    class Problem(
+        val file: VirtualFile,
+        val inspection: String,
+        val level: HighlightDisplayLevel,
+        val message: String,
+        val offset: Int,
+        val line: Int,
+        val column: Int
+    )
+
+    companion object {
+        fun getEnabledTools(project: Project): List<LocalInspectionToolWrapper> {
+            val profile = InspectionProjectProfileManager.getInstance(project).currentProfile
+
+            return profile.getAllEnabledInspectionTools(project).mapNotNull {
+                val wrapper = it.tool as? LocalInspectionToolWrapper
+                if (wrapper?.language == LuaLanguage.INSTANCE.id) wrapper else null
+            }
+        }
+
+        fun getProjectFiles(project: Project): List<VirtualFile> {
+            return ReadAction.compute<List<VirtualFile>, RuntimeException> {
+                // Largest first, so the most expensive files aren't left to a single thread at the end of the run.
+                FileTypeIndex.getFiles(LuaFileType.INSTANCE, GlobalSearchScope.projectScope(project)).sortedByDescending { it.length }
+            }
+        }
+    }
+
+    private val inspectionManager = InspectionManager.getInstance(project)
+    private val profile = InspectionProjectProfileManager.getInstance(project).currentProfile
+
+    /**
+     * Inspects [files], invoking [consumer] (serially) with each file's problems as soon as the file has been inspected.
+     *
+     * @return false if the run was cancelled before all files were inspected.
+     */
+    fun run(files: List<VirtualFile>, indicator: ProgressIndicator, consumer: (file: VirtualFile, problems: List<Problem>) -> Unit): Boolean {
+        val inspectedCount = AtomicInteger()
+
+        // The calling thread's search state (e.g. dumb mode) is propagated to each file's worker thread, with a context
+        // of its own, so that no per-context cache is retained for the whole run.
+        val context = SearchContext.get(project).getProjectContext()
+
+        indicator.isIndeterminate = false
+
+        return JobLauncher.getInstance().invokeConcurrentlyUnderProgress(files, indicator) { file ->
+            val problems = SearchContext.withContext(context.fork()) {
+                inspect(file)
+            }
+
+            synchronized(this) {
+                consumer(file, problems)
+            }
+
+            indicator.fraction = inspectedCount.incrementAndGet().toDouble() / files.size
+            true
+        }
+    }
+
+    fun inspect(file: VirtualFile): List<Problem> {
+        return DumbService.getInstance(project).runReadActionInSmartMode(Computable {
+            val psiFile = PsiManager.getInstance(project).findFile(file) as? LuaPsiFile
+            val document = psiFile?.let { PsiDocumentManager.getInstance(project).getDocument(it) }
+
+            if (psiFile == null || document == null) {
+                return@Computable emptyList()
+            }
+
+            val elements = SyntaxTraverser.psiTraverser(psiFile).toList()
+            val problems = mutableListOf<Problem>()
+
+            for (wrapper in tools) {
+                ProgressManager.checkCanceled()
+
+                val tool = wrapper.tool
+                val level = HighlightDisplayKey.find(wrapper.shortName)?.let { profile.getErrorLevel(it, psiFile) } ?: wrapper.defaultLevel
+                val holder = ProblemsHolder(inspectionManager, psiFile, false)
+                val session = LocalInspectionToolSession(psiFile, 0, psiFile.textLength)
+
+                tool.inspectionStarted(session, false)
+
+                val visitor = tool.buildVisitor(holder, false, session)
+
+                for (element in elements) {
+                    element.accept(visitor)
+                }
+
+                tool.inspectionFinished(session, holder)
+
+                for (descriptor in holder.results) {
+                    val element = descriptor.psiElement ?: continue
+
+                    if (tool.isSuppressedFor(element)) {
+                        continue
+                    }
+
+                    val offset = element.textRange.startOffset + (descriptor.textRangeInElement?.startOffset ?: 0)
+                    val line = document.getLineNumber(offset)
+
+                    problems.add(Problem(
+                        file,
+                        wrapper.shortName,
+                        level,
+                        ProblemDescriptorUtil.renderDescriptionMessage(descriptor, element),
+                        offset,
+                        line,
+                        offset - document.getLineStartOffset(line)
+                    ))
+                }
+            }
+
+            problems
+        })
+    }
+}
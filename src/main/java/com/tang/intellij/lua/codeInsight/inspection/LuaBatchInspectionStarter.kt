@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.lua.codeInsight.inspection
+
+import com.google.gson.GsonBuilder
+import com.google.gson.JsonArray
+import com.google.gson.JsonObject
+import com.intellij.codeHighlighting.HighlightDisplayLevel
+import com.intellij.ide.impl.OpenProjectTask
+import com.intellij.ide.impl.ProjectUtil
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.application.ApplicationStarter
+import com.intellij.openapi.diagnostic.Logger
+import com.intellij.openapi.progress.EmptyProgressIndicator
+import com.intellij.openapi.project.DumbService
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.project.ProjectManager
+import com.intellij.openapi.vfs.VfsUtilCore
+import com.intellij.openapi.vfs.VirtualFile
+import java.io.File
+import java.nio.file.Path
+import java.nio.file.Paths
+import kotlin.system.exitProcess
+
+/**
+ * Type checks a project from the command line, without a GUI, for use in CI:
+ *
+ *     idea.sh luanalysis <project> [--format=text|json|sarif] [--output=<file>] [--fail-on=error|warning]
+ *
+ * Stub indexes are persisted in the IDE's system directory as usual, so pointing repeated runs at the same system
+ * directory (`idea.system.path`) means only files changed since the previous run are re-indexed.
+ *
+ * Exits with status 1 if any problem is reported at or above the `--fail-on` level (error by default), or 2 if the
+ * project could not be checked in full (e.g. inspection was cancelled).
+ */
+class LuaBatchInspectionStarter : ApplicationStarter {
+    companion object {
+        private val LOG = Logger.getInstance(LuaBatchInspectionStarter::class.java)
+    }
+
+    private enum class Format {
+        TEXT,
+        JSON,
+        SARIF
+    }
+
+    private class Options(val projectPath: Path, val format: Format, val output: File?, val failOnWarnings: Boolean)
+
+    override fun getCommandName() = "luanalysis"
+
+    override fun isHeadless() = true
+
+    // Opening the project and waiting for indexing to complete both require that we're not blocking the EDT.
+    override fun getRequiredModality() = ApplicationStarter.NOT_IN_EDT
+
+    override fun main(args: List<String>) {
+        val options = parseOptions(args.drop(1))
+
+        if (options == null) {
+            System.err.println("Usage: luanalysis <project> [--format=text|json|sarif] [--output=<file>] [--fail-on=error|warning]")
+            exitProcess(2)
+        }
+
+        val exitCode = try {
+            check(options)
+        } catch (e: Exception) {
+            LOG.error("Unable to check project: ${options.projectPath}", e)
+            2
+        }
+
+        exitProcess(exitCode)
+    }
+
+    private fun parseOptions(args: List<String>): Options? {
+        var projectPath: Path? = null
+        var format = Format.TEXT
+        var output: File? = null
+        var failOnWarnings = false
+
+        for (arg in args) {
+            when {
+                arg.startsWith("--format=") -> {
+                    format = Format.values().find { it.name.equals(arg.substringAfter('='), true) } ?: return null
+                }
+                arg.startsWith("--output=") -> output = File(arg.substringAfter('='))
+                arg.startsWith("--fail-on=") -> {
+                    failOnWarnings = when (arg.substringAfter('=')) {
+                        "error" -> false
+                        "warning" -> true
+                        else -> return null
+                    }
+                }
+                arg.startsWith("--") || projectPath != null -> return null
+                else -> projectPath = Paths.get(arg).toAbsolutePath().normalize()
+            }
+        }
+
+        return projectPath?.let { Options(it, format, output, failOnWarnings) }
+    }
+
+    private fun check(options: Options): Int {
+        val project = ProjectUtil.openOrImport(options.projectPath, OpenProjectTask())
+
+        if (project == null) {
+            System.err.println("Unable to open project: ${options.projectPath}")
+            return 2
+        }
+
+        try {
+            DumbService.getInstance(project).waitForSmartMode()
+
+            val runner = LuaBatchInspectionRunner(project)
+            val files = LuaBatchInspectionRunner.getProjectFiles(project)
+            val problems = mutableListOf<LuaBatchInspectionRunner.Problem>()
+
+            val completed = runner.run(files, EmptyProgressIndicator()) { _, fileProblems ->
+                problems.addAll(fileProblems)
+
+                if (options.format == Format.TEXT && options.output == null) {
+                    fileProblems.forEach { println(renderText(project, it)) }
+                }
+            }
+
+            // A cancelled run has only inspected some files, so its report can't be trusted to be clean.
+            if (!completed) {
+                System.err.println("Inspection was cancelled before all files were checked")
+                return 2
+            }
+
+            val report = when (options.format) {
+                Format.TEXT -> if (options.output != null) problems.joinToString("\n") { renderText(project, it) } else null
+                Format.JSON -> GsonBuilder().setPrettyPrinting().create().toJson(renderJson(project, problems))
+                Format.SARIF -> GsonBuilder().setPrettyPrinting().create().toJson(renderSarif(project, problems))
+            }
+
+            if (report != null) {
+                options.output?.writeText(report) ?: println(report)
+            }
+
+            val failed = problems.any {
+                it.level == HighlightDisplayLevel.ERROR || (options.failOnWarnings && isWarning(it.level))
+            }
+
+            return if (failed) 1 else 0
+        } finally {
+            ApplicationManager.getApplication().invokeAndWait {
+                ProjectManager.getInstance().closeAndDispose(project)
+            }
+        }
+    }
+
+    private fun isWarning(level: HighlightDisplayLevel): Boolean {
+        return level == HighlightDisplayLevel.WARNING || level == HighlightDisplayLevel.WEAK_WARNING
+    }
+
+    private fun getSeverity(level: HighlightDisplayLevel): String {
+        return when {
+            level == HighlightDisplayLevel.ERROR -> "error"
+            isWarning(level) -> "warning"
+            else -> "note"
+        }
+    }
+
+    private fun getRelativePath(project: Project, file: VirtualFile): String {
+        val baseDir = project.basePath?.let { File(it) }
+        return baseDir?.let { VfsUtilCore.virtualToIoFile(file).relativeTo(it).invariantSeparatorsPath } ?: file.path
+    }
+
+    private fun renderText(project: Project, problem: LuaBatchInspectionRunner.Problem): String {
+        val path = getRelativePath(project, problem.file)
+        return "$path:${problem.line + 1}:${problem.column + 1}: ${getSeverity(problem.level)}: ${problem.message} [${problem.inspection}]"
+    }
+
+    private fun renderJson(project: Project, problems: List<LuaBatchInspectionRunner.Problem>): JsonArray {
+        val results = JsonArray()
+
+        problems.forEach { problem ->
+            results.add(JsonObject().apply {
+                addProperty("file", getRelativePath(project, problem.file))
+                addProperty("line", problem.line + 1)
+                addProperty("column", problem.column + 1)
+                addProperty("severity", getSeverity(problem.level))
+                addProperty("inspection", problem.inspection)
+                addProperty("message", problem.message)
+            })
+        }
+
+        return results
+    }
+
+    private fun renderSarif(project: Project, problems: List<LuaBatchInspectionRunner.Problem>): JsonObject {
+        val rules = JsonArray()
+
+        problems.map { it.inspection }.distinct().sorted().forEach { inspection ->
+            rules.add(JsonObject().apply {
+                addProperty("id", inspection)
+            })
+        }
+
+        val results = JsonArray()
+
+        problems.forEach { problem ->
+            val region = JsonObject().apply {
+                addProperty("startLine", problem.line + 1)
+                addProperty("startColumn", problem.column + 1)
+            }
+
+            val artifactLocation = JsonObject().apply {
+                addProperty("uri", getRelativePath(project, problem.file))
+                addProperty("uriBaseId", "%SRCROOT%")
+            }
+
+            val location = JsonObject().apply {
+                add("physicalLocation", JsonObject().apply {
+                    add("artifactLocation", artifactLocation)
+                    add("region", region)
+                })
+            }
+
+            results.add(JsonObject().apply {
+                addProperty("ruleId", problem.inspection)
+                addProperty("level", getSeverity(problem.level))
+                add("message", JsonObject().apply { addProperty("text", problem.message) })
+                add("locations", JsonArray().apply { add(location) })
+            })
+        }
+
+        val driver = JsonObject().apply {
+            addProperty("name", "Luanalysis")
+            add("rules", rules)
+        }
+
+        val run = JsonObject().apply {
+            add("tool", JsonObject().apply { add("driver", driver) })
+            add("results", results)
+        }
+
+        return JsonObject().apply {
+            addProperty("\$schema", "https://json.schemastore.org/sarif-2.1.0.json")
+            addProperty("version", "2.1.0")
+            add("runs", JsonArray().apply { add(run) })
+        }
+    }
+}
@@ -16,28 +16,28 @@
 
 package com.tang.intellij.lua.editor
 
-import com.intellij.navigation.ChooseByNameContributor
+import com.intellij.navigation.ChooseByNameContributorEx
 import com.intellij.navigation.NavigationItem
-import com.intellij.openapi.project.Project
-import com.tang.intellij.lua.search.SearchContext
+import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.util.Processor
+import com.intellij.util.indexing.FindSymbolParameters
+import com.intellij.util.indexing.IdFilter
 import com.tang.intellij.lua.stubs.index.LuaShortNameIndex
 
 /**
  * Goto Symbol
  * Created by TangZX on 2016/12/12.
  */
-class LuaSymbolNavigationContributor : ChooseByNameContributor {
-    override fun getNames(project: Project, b: Boolean): Array<String> {
-        val nameSet = mutableSetOf<String>()
-        LuaShortNameIndex.instance.processAllKeys(project) { s ->
-            nameSet.add(s)
-            true
-        }
-        return nameSet.toTypedArray()
+class LuaSymbolNavigationContributor : ChooseByNameContributorEx {
+    override fun processNames(processor: Processor<in String>,
+                              scope: GlobalSearchScope,
+                              filter: IdFilter?) {
+        LuaShortNameIndex.processKeys(scope, filter, processor)
     }
 
-    override fun getItemsByName(s: String, s1: String, project: Project, b: Boolean): Array<NavigationItem> {
-        val elements = LuaShortNameIndex.find(SearchContext.get(project), s)
-        return elements.toTypedArray()
+    override fun processElementsWithName(name: String,
+                                         processor: Processor<in NavigationItem>,
+                                         parameters: FindSymbolParameters) {
+        LuaShortNameIndex.processElements(name, parameters.project, parameters.searchScope, parameters.idFilter, processor)
     }
 }
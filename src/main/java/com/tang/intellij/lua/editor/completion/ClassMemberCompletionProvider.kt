@@ -21,9 +21,12 @@ import com.intellij.codeInsight.completion.CompletionResultSet
 import com.intellij.codeInsight.completion.PrefixMatcher
 import com.intellij.codeInsight.completion.PrioritizedLookupElement
 import com.intellij.codeInsight.lookup.LookupElement
+import com.intellij.codeInsight.lookup.LookupElementBuilder
 import com.tang.intellij.lua.lang.LuaIcons
 import com.tang.intellij.lua.psi.*
+import com.tang.intellij.lua.refactoring.LuaRefactoringUtil
 import com.tang.intellij.lua.search.SearchContext
+import com.tang.intellij.lua.stubs.index.LuaLargeFileIndex
 import com.tang.intellij.lua.ty.*
 
 enum class MemberCompletionMode {
@@ -129,12 +132,19 @@ open class ClassMemberCompletionProvider : LuaCompletionProvider() {
         val subsequentChildTys = nonGlobalChildTys.drop(1)
         val memberSubstitutor = firstChildTy.getMemberSubstitutor(context)
 
+        // Members of the other child types must be inferred to know whether they're members of every child type.
+        val deferMembers = subsequentChildTys.isEmpty() && canDeferMembers(completionMode, handlerProcessor)
+
         firstChildTy.processMembers(context) { curType, member ->
             val curClass = (if (curType is ITyGeneric) curType.base else curType) as? ITyClass
 
             if (curClass != null) {
                 member.name?.let { memberName ->
                     if (prefixMatcher.prefixMatches(memberName) && curClass.isVisibleInScope(context.project, contextTy, member.visibility)) {
+                        if (deferMembers && addDeferredMember(completionResultSet, member, firstChildTy, prefixTy, memberName)) {
+                            return@processMembers true
+                        }
+
                         var memberTy = member.guessType(context) ?: Primitives.UNKNOWN
 
                         subsequentChildTys.forEach { childTy ->
@@ -175,6 +185,8 @@ open class ClassMemberCompletionProvider : LuaCompletionProvider() {
                            completionResultSet: CompletionResultSet,
                            prefixMatcher: PrefixMatcher,
                            handlerProcessor: HandlerProcessor?) {
+        val deferMembers = canDeferMembers(completionMode, handlerProcessor)
+
         cls.processMembers(context) { memberClass, member ->
             val curClass = (if (memberClass is ITyGeneric) memberClass.base else memberClass) as? ITyClass
             if (curClass != null) {
@@ -188,6 +200,10 @@ open class ClassMemberCompletionProvider : LuaCompletionProvider() {
 
                 name?.let { memberName ->
                     if (prefixMatcher.prefixMatches(memberName) && curClass.isVisibleInScope(context.project, contextTy, member.visibility)) {
+                        if (deferMembers && addDeferredMember(completionResultSet, member, memberClass, memberClass, memberName)) {
+                            return@processMembers true
+                        }
+
                         addMember(context,
                             completionResultSet,
                             member,
@@ -202,6 +218,56 @@ open class ClassMemberCompletionProvider : LuaCompletionProvider() {
             }
             true
         }
+
+        if (cls is ITyClass && completionMode != MemberCompletionMode.Colon) {
+            addLargeFileFields(context, cls, completionResultSet, prefixMatcher)
+        }
+    }
+
+    // Colon completion must infer methods' types to filter them by their self parameter, and handler processors rewrite
+    // lookup strings based on members' types.
+    private fun canDeferMembers(completionMode: MemberCompletionMode, handlerProcessor: HandlerProcessor?): Boolean {
+        return completionMode == MemberCompletionMode.Dot && handlerProcessor == null
+    }
+
+    /**
+     * Adds a member by name alone, deferring inference of its type until it's rendered or inserted. Returns false if the
+     * member cannot be deferred, in which case it must be added by [addMember].
+     */
+    protected fun addDeferredMember(completionResultSet: CompletionResultSet,
+                                    member: TypeMember,
+                                    ownerTy: ITy,
+                                    thisType: ITy,
+                                    memberName: String): Boolean {
+        if (member !is LuaPsiTypeMember || (member !is LuaTypeMethod<*> && member !is LuaTypeField) || !LuaRefactoringUtil.isLuaIdentifier(memberName)) {
+            return false
+        }
+
+        // A deferred element only presents its member's main signature, so overloaded methods are added eagerly, with an
+        // element per signature.
+        if (member is LuaTypeMethod<*> && member.hasOverloads) {
+            return false
+        }
+
+        completionResultSet.addElement(LookupElementFactory.createDeferredMemberLookupElement(thisType.displayName, memberName, member, ownerTy, thisType))
+        return true
+    }
+
+    // Fields of tables declared in files too large to build stubs for, which are only known by name.
+    protected fun addLargeFileFields(context: SearchContext,
+                                     cls: ITyClass,
+                                     completionResultSet: CompletionResultSet,
+                                     prefixMatcher: PrefixMatcher) {
+        val typeText = cls.displayName
+
+        LuaLargeFileIndex.processFields(context, cls.className) { fieldName ->
+            if (LuaRefactoringUtil.isLuaIdentifier(fieldName) && prefixMatcher.prefixMatches(fieldName)) {
+                completionResultSet.addElement(LookupElementBuilder.create(fieldName)
+                    .withIcon(LuaIcons.CLASS_FIELD)
+                    .withTypeText(typeText))
+            }
+            true
+        }
     }
 
     protected fun addMember(context: SearchContext,
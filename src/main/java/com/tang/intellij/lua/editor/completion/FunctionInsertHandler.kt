@@ -39,25 +39,43 @@ open class SignatureInsertHandler(val sig: IFunSignature, private val isColonSty
         get() = sig.hasVarargs()
 }
 
+/**
+ * Inserts the arguments of a function whose parameters are already known, without inferring its signature.
+ */
+open class ParamsInsertHandler(override val params: Array<out LuaParamInfo>, override val isVarargs: Boolean) : ArgsInsertHandler()
+
 /**
  * "string":sub() -> ("string"):sub()
  */
 class SignatureInsertHandlerForString(sig: IFunSignature,
                                       isColonStyle: Boolean = false) : SignatureInsertHandler(sig, isColonStyle) {
     override fun appendSignature(insertionContext: InsertionContext, editor: Editor, element: PsiElement?) {
-        val startOffset = insertionContext.startOffset
-        val indexExpr = insertionContext.file.findElementAt(startOffset)?.parent as? LuaIndexExpr
-        if (indexExpr != null) {
-            val prefixExpr = indexExpr.prefixExpression
-            if (prefixExpr is LuaLiteralExpr && prefixExpr.kind == LuaLiteralKind.String) {
-                val node = prefixExpr.node
-                insertionContext.document.insertString(node.startOffset + node.textLength, ")")
-                insertionContext.document.insertString(node.startOffset, "(")
-
-                insertionContext.offsetMap.addOffset(CompletionInitializationContext.START_OFFSET, 2)
-            }
-        }
+        wrapStringPrefix(insertionContext)
+        super.appendSignature(insertionContext, editor, element)
+    }
+}
 
+/**
+ * As [SignatureInsertHandlerForString], for parameters that are already known.
+ */
+class ParamsInsertHandlerForString(params: Array<out LuaParamInfo>, isVarargs: Boolean) : ParamsInsertHandler(params, isVarargs) {
+    override fun appendSignature(insertionContext: InsertionContext, editor: Editor, element: PsiElement?) {
+        wrapStringPrefix(insertionContext)
         super.appendSignature(insertionContext, editor, element)
     }
 }
+
+private fun wrapStringPrefix(insertionContext: InsertionContext) {
+    val startOffset = insertionContext.startOffset
+    val indexExpr = insertionContext.file.findElementAt(startOffset)?.parent as? LuaIndexExpr
+    if (indexExpr != null) {
+        val prefixExpr = indexExpr.prefixExpression
+        if (prefixExpr is LuaLiteralExpr && prefixExpr.kind == LuaLiteralKind.String) {
+            val node = prefixExpr.node
+            insertionContext.document.insertString(node.startOffset + node.textLength, ")")
+            insertionContext.document.insertString(node.startOffset, "(")
+
+            insertionContext.offsetMap.addOffset(CompletionInitializationContext.START_OFFSET, 2)
+        }
+    }
+}
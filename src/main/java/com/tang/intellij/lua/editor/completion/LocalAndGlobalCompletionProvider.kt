@@ -16,12 +16,14 @@
 
 package com.tang.intellij.lua.editor.completion
 
+import com.intellij.codeInsight.completion.CompletionResultSet
 import com.intellij.codeInsight.lookup.LookupElementBuilder
 import com.intellij.psi.tree.TokenSet
 import com.tang.intellij.lua.Constants
 import com.tang.intellij.lua.lang.LuaIcons
 import com.tang.intellij.lua.lang.LuaParserDefinition
 import com.tang.intellij.lua.psi.*
+import com.tang.intellij.lua.search.LuaGlobalSymbolTable
 import com.tang.intellij.lua.search.SearchContext
 import com.tang.intellij.lua.ty.*
 
@@ -85,6 +87,46 @@ class LocalAndGlobalCompletionProvider(private val mask: Int) : ClassMemberCompl
         }
     }
 
+    // Looks up candidates in the global symbol table, rather than enumerating every member of _G.
+    private fun addGlobals(context: SearchContext, completionResultSet: CompletionResultSet) {
+        val prefixMatcher = completionResultSet.prefixMatcher
+        val globals = LuaGlobalSymbolTable.getInstance(context.project)
+        val memberSubstitutor = TyClass.G.getMemberSubstitutor(context)
+
+        // Names are narrowed by the whole prefix, matched as camel humps, and then filtered by the prefix matcher.
+        globals.processNames(context, prefixMatcher.prefix) { name ->
+            val symbol = if (prefixMatcher.prefixMatches(name)) globals.getSymbol(context, name) else null
+
+            if (symbol != null) {
+                // Functions are presented by a function declaration, rather than e.g. an assignment elsewhere.
+                val visibleMembers = symbol.members.filter {
+                    TyClass.G.isVisibleInScope(context.project, TyClass.G, it.visibility)
+                }
+                val member = if (symbol.kind == LuaGlobalSymbolTable.Kind.Function) {
+                    visibleMembers.firstOrNull { it is LuaTypeMethod<*> } ?: visibleMembers.firstOrNull()
+                } else {
+                    visibleMembers.firstOrNull()
+                }
+
+                if (member != null && !addDeferredMember(completionResultSet, member, TyClass.G, TyClass.G, name)) {
+                    addMember(context,
+                        completionResultSet,
+                        member,
+                        memberSubstitutor,
+                        TyClass.G,
+                        name,
+                        globals.getDeclaredType(context, symbol),
+                        MemberCompletionMode.Dot,
+                        null)
+                }
+            }
+
+            true
+        }
+
+        addLargeFileFields(context, TyClass.G, completionResultSet, prefixMatcher)
+    }
+
     override fun addCompletions(session: CompletionSession) {
         val completionParameters = session.parameters
         val completionResultSet = session.resultSet
@@ -122,7 +164,11 @@ class LocalAndGlobalCompletionProvider(private val mask: Int) : ClassMemberCompl
 
         //global
         if (has(GLOBAL_FUN) || has(GLOBAL_VAR)) {
-            addClass(context, TyClass.G, TyClass.G, MemberCompletionMode.Dot, completionResultSet, completionResultSet.prefixMatcher, null)
+            if (context.isProjectCacheable && LuaGlobalSymbolTable.getInstance(context.project).isReady) {
+                addGlobals(context, completionResultSet)
+            } else {
+                addClass(context, TyClass.G, TyClass.G, MemberCompletionMode.Dot, completionResultSet, completionResultSet.prefixMatcher, null)
+            }
         }
         //key words
         if (has(KEY_WORDS)) {
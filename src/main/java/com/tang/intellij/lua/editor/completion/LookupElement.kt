@@ -18,11 +18,17 @@
 
 package com.tang.intellij.lua.editor.completion
 
+import com.intellij.codeInsight.completion.InsertionContext
 import com.intellij.codeInsight.lookup.LookupElementPresentation
+import com.intellij.codeInsight.lookup.LookupElementRenderer
 import com.intellij.psi.PsiElement
 import com.tang.intellij.lua.Constants
 import com.tang.intellij.lua.lang.LuaIcons
+import com.tang.intellij.lua.psi.LuaClassMethodDefStat
+import com.tang.intellij.lua.psi.LuaParamInfo
+import com.tang.intellij.lua.psi.LuaPsiTypeMember
 import com.tang.intellij.lua.psi.LuaTypeField
+import com.tang.intellij.lua.psi.LuaTypeMethod
 import com.tang.intellij.lua.psi.LuaPsiElement
 import com.tang.intellij.lua.search.SearchContext
 import com.tang.intellij.lua.ty.*
@@ -139,3 +145,142 @@ class TyFunctionLookupElement(name: String,
         return psi
     }
 }
+
+/**
+ * A member added by name alone, so that completion of classes with many members (e.g. _G) doesn't have to infer every
+ * member's type before the lookup is shown. The member's type is inferred when the element is first rendered by the
+ * lookup's background (expensive) renderer, or when it's inserted, whichever happens first.
+ */
+class LuaDeferredMemberLookupElement(name: String,
+                                     val member: LuaPsiTypeMember,
+                                     private val ownerTy: ITy,
+                                     private val thisType: ITy,
+                                     private val clazzName: String
+) : LuaLookupElement(name, false, member.visibility.warpIcon(if (member is LuaTypeMethod<*>) LuaIcons.CLASS_METHOD else LuaIcons.CLASS_FIELD)),
+    LuaDocumentationLookupElement {
+
+    private class Rendered(val ty: ITy, val signature: IFunSignature?)
+
+    companion object {
+        private val RENDERER = object : LookupElementRenderer<LuaDeferredMemberLookupElement>() {
+            override fun renderElement(element: LuaDeferredMemberLookupElement, presentation: LookupElementPresentation) {
+                element.render()
+                element.renderElement(presentation)
+            }
+        }
+    }
+
+    @Volatile
+    private var rendered: Rendered? = null
+
+    init {
+        // looks like static
+        setItemTextUnderlined(member is LuaTypeMethod<*>)
+        setTailText("  [$clazzName]")
+    }
+
+    private fun render(): Rendered {
+        rendered?.let {
+            return it
+        }
+
+        val context = SearchContext.get(member.project)
+        val memberTy = if (member.isValid) member.guessType(context) ?: Primitives.UNKNOWN else Primitives.UNKNOWN
+        val memberSubstitutor = ownerTy.getMemberSubstitutor(context)
+        val substitutedTy = if (memberSubstitutor != null) memberTy.substitute(context, memberSubstitutor) else memberTy
+
+        val result = if (memberTy is ITyFunction) {
+            val fn = memberTy.substitute(context, TySelfSubstitutor(null, substitutedTy)) as? ITyFunction ?: memberTy
+            Rendered(fn, fn.mainSignature)
+        } else {
+            Rendered(substitutedTy, null)
+        }
+
+        rendered = result
+        return result
+    }
+
+    override fun getExpensiveRenderer(): LookupElementRenderer<out LuaLookupElement> {
+        return RENDERER
+    }
+
+    override fun renderElement(presentation: LookupElementPresentation) {
+        super.renderElement(presentation)
+
+        // Only rendered once the expensive renderer has inferred the member's type.
+        val result = rendered ?: return
+        val signature = result.signature
+
+        if (signature != null) {
+            val params = mutableListOf<String>()
+            signature.processParameters(null, false) { _, param ->
+                params.add(param.name)
+                true
+            }
+            if (signature.hasVarargs())
+                params.add("...")
+            presentation.setItemText("$lookupString(${params.joinToString(", ")})")
+            presentation.setTypeText(signature.returnTy?.displayName, null)
+            presentation.setItemTextUnderlined(true)
+            presentation.setIcon(member.visibility.warpIcon(LuaIcons.CLASS_METHOD))
+        } else {
+            presentation.setTypeText(result.ty.displayName, null)
+        }
+
+        presentation.setItemTextBold(result.ty == thisType)
+    }
+
+    override fun handleInsert(context: InsertionContext) {
+        val result = rendered
+        val handler = if (result != null) {
+            result.signature?.let { signature ->
+                if (clazzName == Constants.WORD_STRING) {
+                    SignatureInsertHandlerForString(signature)
+                } else {
+                    SignatureInsertHandler(signature)
+                }
+            }
+        } else {
+            // Not yet rendered, so rather than inferring the member's type on the EDT, insert its declared parameters.
+            createParamsInsertHandler()
+        }
+
+        if (handler != null) {
+            handler.handleInsert(context, this)
+        } else {
+            super.handleInsert(context)
+        }
+    }
+
+    private fun createParamsInsertHandler(): ArgsInsertHandler? {
+        if (member !is LuaTypeMethod<*> || !member.isValid) {
+            return null
+        }
+
+        // Accessed with a dot, so methods declared with a colon take self explicitly.
+        val params = if (member is LuaClassMethodDefStat && !member.isStatic) {
+            arrayOf(LuaParamInfo.createSelf(thisType), *member.params)
+        } else {
+            member.params
+        }
+        val isVarargs = member.varargType != null
+
+        return if (clazzName == Constants.WORD_STRING) {
+            ParamsInsertHandlerForString(params, isVarargs)
+        } else {
+            ParamsInsertHandler(params, isVarargs)
+        }
+    }
+
+    override fun getDocumentationElement(context: SearchContext): PsiElement? {
+        return if (member.isValid) member else null
+    }
+
+    override fun getObject(): LuaPsiElement {
+        return member
+    }
+
+    override fun equals(other: Any?): Boolean {
+        return other is LuaDeferredMemberLookupElement && super.equals(other)
+    }
+}
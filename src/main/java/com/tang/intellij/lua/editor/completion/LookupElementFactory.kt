@@ -22,6 +22,7 @@ import com.intellij.codeInsight.lookup.LookupElementBuilder
 import com.intellij.psi.tree.IElementType
 import com.tang.intellij.lua.Constants
 import com.tang.intellij.lua.psi.LuaPsiElement
+import com.tang.intellij.lua.psi.LuaPsiTypeMember
 import com.tang.intellij.lua.psi.LuaTypeField
 import com.tang.intellij.lua.ty.TypeMember
 import com.tang.intellij.lua.refactoring.LuaRefactoringUtil
@@ -98,5 +99,13 @@ class LookupElementFactory {
             element.setTailText("  [$clazzName]")
             return element
         }
+
+        fun createDeferredMemberLookupElement(clazzName: String,
+                                              name: String,
+                                              member: LuaPsiTypeMember,
+                                              ownerTy: ITy,
+                                              thisType: ITy): LuaLookupElement {
+            return LuaDeferredMemberLookupElement(name, member, ownerTy, thisType, clazzName)
+        }
     }
 }
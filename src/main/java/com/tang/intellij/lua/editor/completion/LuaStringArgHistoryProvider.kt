@@ -16,9 +16,9 @@
 
 package com.tang.intellij.lua.editor.completion
 
+import com.intellij.codeInsight.completion.PrioritizedLookupElement
 import com.intellij.codeInsight.lookup.LookupElementBuilder
 import com.intellij.patterns.PlatformPatterns
-import com.intellij.psi.search.GlobalSearchScope
 import com.intellij.psi.util.PsiTreeUtil
 import com.tang.intellij.lua.lang.LuaIcons
 import com.tang.intellij.lua.psi.*
@@ -30,6 +30,9 @@ class LuaStringArgHistoryProvider : LuaCompletionProvider() {
                 .withParent(
                         PlatformPatterns.psiElement(LuaTypes.LITERAL_EXPR).withParent(LuaArgs::class.java)
                 )
+
+        // Only the most frequently passed matching strings are suggested.
+        private const val MAX_RESULTS = 100
     }
 
     override fun addCompletions(session: CompletionSession) {
@@ -38,15 +41,19 @@ class LuaStringArgHistoryProvider : LuaCompletionProvider() {
         val fnName = callExpr.expression.name ?: return
         var index = callExpr.argList.indexOf(argExpr)
         index = if (callExpr.isMethodColonCall) index + 1 else index
-        LuaStringArgIndex.processValues(fnName, GlobalSearchScope.projectScope(callExpr.project)) { arg ->
-            if (arg.argIndex == index) {
-                session.resultSet.addElement(
-                    LookupElementBuilder.create(arg.argString)
-                        .withIcon(LuaIcons.STRING_ARG_HISTORY)
-                        .withTypeText("History", true)
-                )
+
+        val prefixMatcher = session.resultSet.prefixMatcher
+        val counts = LuaStringArgIndex.getArgCounts(callExpr.project, fnName, index, false)
+
+        counts.entries
+            .filter { prefixMatcher.prefixMatches(it.key) }
+            .sortedByDescending { it.value }
+            .take(MAX_RESULTS)
+            .forEach { (argString, count) ->
+                val lookupElement = LookupElementBuilder.create(argString)
+                    .withIcon(LuaIcons.STRING_ARG_HISTORY)
+                    .withTypeText("History", true)
+                session.resultSet.addElement(PrioritizedLookupElement.withPriority(lookupElement, count.toDouble()))
             }
-            true
-        }
     }
 }
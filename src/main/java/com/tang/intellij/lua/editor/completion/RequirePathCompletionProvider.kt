@@ -19,13 +19,12 @@ package com.tang.intellij.lua.editor.completion
 import com.intellij.codeInsight.completion.*
 import com.intellij.codeInsight.lookup.LookupElement
 import com.intellij.codeInsight.lookup.LookupElementBuilder
-import com.intellij.openapi.project.Project
-import com.intellij.openapi.util.io.FileUtil
-import com.intellij.openapi.vfs.VirtualFile
-import com.tang.intellij.lua.lang.LuaFileType
+import com.tang.intellij.lua.Constants
 import com.tang.intellij.lua.lang.LuaIcons
 import com.tang.intellij.lua.lang.type.LuaString
+import com.tang.intellij.lua.project.LuaRequirePathIndex
 import com.tang.intellij.lua.project.LuaSourceRootManager
+import com.tang.intellij.lua.stubs.index.LuaStringArgIndex
 
 /**
  *
@@ -50,30 +49,28 @@ class RequirePathCompletionProvider : LuaCompletionProvider() {
 
     private fun addAllFiles(completionParameters: CompletionParameters, completionResultSet: CompletionResultSet) {
         val project = completionParameters.originalFile.project
-        val sourceRoots = LuaSourceRootManager.getInstance(project).getSourceRoots()
-        for (sourceRoot in sourceRoots) {
-            addAllFiles(project, completionResultSet, null, sourceRoot.children)
-        }
-    }
-
-    private fun addAllFiles(project: Project, completionResultSet: CompletionResultSet, pck: String?, children: Array<VirtualFile>) {
-        for (child in children) {
-            if (!LuaSourceRootManager.getInstance(project).isInSource(child))
-                continue
+        val sourceRootManager = LuaSourceRootManager.getInstance(project)
+        val prefixMatcher = completionResultSet.prefixMatcher
+        val requireCounts = LuaStringArgIndex.getArgCounts(project, Constants.WORD_REQUIRE, 0, true)
+        val modulePaths = mutableSetOf<String>()
 
-            val fileName = FileUtil.getNameWithoutExtension(child.name)
-            val newPath = if (pck == null) fileName else "$pck.$fileName"
+        // Module paths are indexed by the start of each of their words, so only the first character of the prefix is
+        // used to narrow candidates.
+        LuaRequirePathIndex.getInstance(project).processModules(prefixMatcher.prefix.take(1)) { moduleFile ->
+            val modulePath = moduleFile.modulePath
 
-            if (child.isDirectory) {
-
-                addAllFiles(project, completionResultSet, newPath, child.children)
-            } else if (child.fileType === LuaFileType.INSTANCE) {
+            if (prefixMatcher.prefixMatches(modulePath) && sourceRootManager.isInSource(moduleFile.file) && modulePaths.add(modulePath)) {
                 val lookupElement = LookupElementBuilder
-                        .create(newPath)
+                        .create(modulePath)
                         .withIcon(LuaIcons.FILE)
                         .withInsertHandler(FullPackageInsertHandler())
-                completionResultSet.addElement(PrioritizedLookupElement.withPriority(lookupElement, 1.0))
+
+                // Modules that are required most often are listed first.
+                val priority = 1.0 + (requireCounts[modulePath] ?: 0)
+                completionResultSet.addElement(PrioritizedLookupElement.withPriority(lookupElement, priority))
             }
+
+            true
         }
     }
 
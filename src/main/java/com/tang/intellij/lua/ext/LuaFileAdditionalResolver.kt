@@ -20,10 +20,18 @@ import com.intellij.openapi.project.Project
 import com.intellij.openapi.vfs.VfsUtil
 import com.intellij.openapi.vfs.VirtualFile
 import com.intellij.openapi.vfs.VirtualFileManager
+import com.tang.intellij.lua.project.LuaRequirePathIndex
 import com.tang.intellij.lua.project.LuaSettings
 
 class LuaFileAdditionalResolver : ILuaFileResolver {
     override fun find(project: Project, shortUrl: String, extNames: Array<String>): VirtualFile? {
+        val candidates = extNames.map { "$shortUrl$it" }
+        val requirePathIndex = LuaRequirePathIndex.getInstance(project)
+
+        if (candidates.all { requirePathIndex.isIndexable(it) }) {
+            return requirePathIndex.findInAdditionalRoots(candidates)
+        }
+
         val sourcesRoot = LuaSettings.instance.additionalSourcesRoot
         for (sr in sourcesRoot) {
             for (ext in extNames) {
@@ -0,0 +1,365 @@
+/*
+ * Copyright (c) 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.lua.project
+
+import com.intellij.ProjectTopics
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.fileTypes.FileTypeManager
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.progress.util.ProgressIndicatorUtils
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.roots.ModuleRootEvent
+import com.intellij.openapi.roots.ModuleRootListener
+import com.intellij.openapi.util.io.FileUtil
+import com.intellij.openapi.util.text.StringUtil
+import com.intellij.openapi.vfs.VfsUtil
+import com.intellij.openapi.vfs.VfsUtilCore
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.vfs.VirtualFileManager
+import com.intellij.openapi.vfs.VirtualFileVisitor
+import com.intellij.openapi.vfs.newvfs.BulkFileListener
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent
+import com.intellij.openapi.vfs.newvfs.events.VFileCreateEvent
+import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent
+import com.intellij.util.Processor
+import com.tang.intellij.lua.psi.LuaFileManager
+import com.tang.intellij.lua.search.WordPrefixIndex
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Maps the paths of Lua files, relative to each source root (and additional sources root), to the files, so that
+ * resolving a require path is a handful of hash lookups rather than a VFS lookup per root per extension.
+ *
+ * Files in source roots are also kept in a [WordPrefixIndex] by module path (i.e. "a.b.c" for "a/b/c.lua"), so that require
+ * path completion needn't walk the VFS.
+ *
+ * Built lazily, and rebuilt after roots change, or files are moved or renamed. Files created or deleted are updated in
+ * place. The index is built by the first lookup that needs it, without holding a lock, and concurrent lookups wait for
+ * that build in a way that remains cancellable.
+ */
+class LuaRequirePathIndex(private val project: Project) : Disposable {
+    companion object {
+        fun getInstance(project: Project): LuaRequirePathIndex {
+            return project.getService(LuaRequirePathIndex::class.java)
+        }
+    }
+
+    /**
+     * A Lua file in a source root, and the path by which it's required.
+     */
+    data class ModuleFile(val modulePath: String, val file: VirtualFile)
+
+    private class RootFiles(val root: VirtualFile, val isSourceRoot: Boolean) {
+        // Relative path (including extension) -> file
+        val files = ConcurrentHashMap<String, VirtualFile>()
+
+        val rootPath: String = root.path
+
+        fun key(relativePath: String): String {
+            return if (root.isCaseSensitive) relativePath else StringUtil.toLowerCase(relativePath)
+        }
+
+        fun find(relativePath: String): VirtualFile? {
+            return files[key(relativePath)]?.takeIf { it.isValid }
+        }
+    }
+
+    private class Index(
+        val sourceRoots: List<RootFiles>,
+        val additionalRoots: List<RootFiles>,
+        val additionalRootPaths: List<String>,
+        val extensions: List<String>
+    ) {
+        val allRoots = sourceRoots + additionalRoots
+
+        // Guarded by itself.
+        val modules = WordPrefixIndex<ModuleFile>()
+
+        fun matches(additionalRootPaths: List<String>, extensions: List<String>): Boolean {
+            return this.additionalRootPaths == additionalRootPaths && this.extensions == extensions
+        }
+    }
+
+    private class Build(val additionalRootPaths: List<String>, val extensions: List<String>) {
+        // Completed with null if the build was cancelled.
+        val future = CompletableFuture<Index?>()
+    }
+
+    private val index = AtomicReference<Index?>()
+
+    // The build in progress, if any.
+    private val build = AtomicReference<Build?>()
+
+    // Incremented by anything that may invalidate an index that's being built.
+    private val modificationCount = AtomicLong()
+
+    init {
+        val connection = project.messageBus.connect(this)
+
+        connection.subscribe(VirtualFileManager.VFS_CHANGES, object : BulkFileListener {
+            override fun after(events: MutableList<out VFileEvent>) {
+                events.forEach {
+                    if (it !is VFileContentChangeEvent && (it !is VFilePropertyChangeEvent || it.isRename)) {
+                        modificationCount.incrementAndGet()
+                        update(it)
+                    }
+                }
+            }
+        })
+
+        connection.subscribe(ProjectTopics.PROJECT_ROOTS, object : ModuleRootListener {
+            override fun rootsChanged(event: ModuleRootEvent) = invalidate()
+        })
+
+        connection.subscribe(LuaSourceRootManager.TOPIC, object : LuaSourceRootListener {
+            override fun onChanged() = invalidate()
+        })
+    }
+
+    override fun dispose() {
+        invalidate()
+    }
+
+    fun invalidate() {
+        modificationCount.incrementAndGet()
+        index.set(null)
+    }
+
+    /**
+     * Finds the first of [relativePaths] (which must include the file's extension) in the first source root that
+     * contains any of them. Only [isIndexable] paths may be looked up.
+     */
+    fun findInSourceRoots(relativePaths: List<String>): VirtualFile? {
+        return find(getIndex().sourceRoots, relativePaths)
+    }
+
+    /**
+     * As [findInSourceRoots], but for [LuaSettings.additionalSourcesRoot].
+     */
+    fun findInAdditionalRoots(relativePaths: List<String>): VirtualFile? {
+        return find(getIndex().additionalRoots, relativePaths)
+    }
+
+    private fun find(roots: List<RootFiles>, relativePaths: List<String>): VirtualFile? {
+        for (rootFiles in roots) {
+            for (relativePath in relativePaths) {
+                rootFiles.find(relativePath)?.let {
+                    return it
+                }
+            }
+        }
+
+        return null
+    }
+
+    /**
+     * Processes Lua files in source roots whose module path has a word (see [WordPrefixIndex.wordStarts]) starting with
+     * [prefix], case-insensitively. Callers are expected to filter module paths further e.g. with a prefix matcher.
+     */
+    fun processModules(prefix: String, processor: Processor<ModuleFile>): Boolean {
+        val index = getIndex()
+        val candidates = mutableListOf<ModuleFile>()
+
+        synchronized(index.modules) {
+            index.modules.process(prefix) {
+                candidates.add(it)
+            }
+        }
+
+        return candidates.all { it.file.isValid && processor.process(it) }
+    }
+
+    /**
+     * Whether [relativePath] is a normalized relative path, which can be looked up in the index. Otherwise callers must
+     * search the VFS themselves. Only Lua files are indexed, so other paths are never found.
+     */
+    fun isIndexable(relativePath: String): Boolean {
+        if (relativePath.isEmpty() || relativePath.startsWith("/") || relativePath.contains('\\') || relativePath.contains(':')) {
+            return false
+        }
+
+        return relativePath.split('/').none { it.isEmpty() || it == "." || it == ".." }
+    }
+
+    private fun getIndex(): Index {
+        val additionalRootPaths = LuaSettings.instance.additionalSourcesRoot.toList()
+        val extensions = LuaFileManager.getInstance().extensions.filter { it.isNotEmpty() }
+
+        while (true) {
+            index.get()?.let {
+                if (it.matches(additionalRootPaths, extensions)) {
+                    return it
+                }
+            }
+
+            val pendingBuild = build.get()
+
+            if (pendingBuild != null && pendingBuild.additionalRootPaths == additionalRootPaths && pendingBuild.extensions == extensions) {
+                // Another thread is building the index. Rather than blocking on a monitor, wait in a way that can be
+                // cancelled, and build it ourselves if that thread was cancelled.
+                ProgressIndicatorUtils.awaitWithCheckCanceled(pendingBuild.future)?.let {
+                    return it
+                }
+
+                build.compareAndSet(pendingBuild, null)
+                continue
+            }
+
+            val newBuild = Build(additionalRootPaths, extensions)
+
+            if (!build.compareAndSet(pendingBuild, newBuild)) {
+                continue
+            }
+
+            try {
+                val stamp = modificationCount.get()
+                val builtIndex = buildIndex(additionalRootPaths, extensions)
+
+                // Otherwise it's still good enough for the current lookup, but mustn't be reused. invalidate() increments
+                // the count before clearing the index, so if it raced with us, one of them clears what we publish.
+                if (modificationCount.get() == stamp) {
+                    index.set(builtIndex)
+
+                    if (modificationCount.get() != stamp) {
+                        index.compareAndSet(builtIndex, null)
+                    }
+                }
+
+                newBuild.future.complete(builtIndex)
+                return builtIndex
+            } finally {
+                // No-op unless the build was cancelled (or failed).
+                newBuild.future.complete(null)
+                build.compareAndSet(newBuild, null)
+            }
+        }
+    }
+
+    private fun buildIndex(additionalRootPaths: List<String>, extensions: List<String>): Index {
+        val virtualFileManager = VirtualFileManager.getInstance()
+
+        // Same order as roots were searched by the resolvers this replaces.
+        val sourceRoots = LuaSourceRootManager.getInstance(project).getSourceRootUrls().mapNotNull { url ->
+            virtualFileManager.findFileByUrl(url)?.takeIf { it.isDirectory }
+        }.distinct().map { RootFiles(it, true) }
+
+        val additionalRoots = additionalRootPaths.mapNotNull { path ->
+            virtualFileManager.findFileByUrl(VfsUtil.pathToUrl(path))?.takeIf { it.isDirectory }
+        }.map { RootFiles(it, false) }
+
+        val index = Index(sourceRoots, additionalRoots, additionalRootPaths, extensions)
+        val fileTypeManager = FileTypeManager.getInstance()
+
+        index.allRoots.forEach { rootFiles ->
+            VfsUtilCore.visitChildrenRecursively(rootFiles.root, object : VirtualFileVisitor<Any>() {
+                override fun visitFile(file: VirtualFile): Boolean {
+                    ProgressManager.checkCanceled()
+
+                    if (file.isDirectory) {
+                        return file == rootFiles.root || !fileTypeManager.isFileIgnored(file)
+                    }
+
+                    add(index, rootFiles, file)
+                    return true
+                }
+            })
+        }
+
+        return index
+    }
+
+    private fun add(index: Index, rootFiles: RootFiles, file: VirtualFile) {
+        val extension = index.extensions.firstOrNull { file.name.endsWith(it) } ?: return
+
+        VfsUtilCore.getRelativePath(file, rootFiles.root)?.let {
+            rootFiles.files.putIfAbsent(rootFiles.key(it), file)
+
+            if (rootFiles.isSourceRoot) {
+                val moduleFile = ModuleFile(getModulePath(it, extension), file)
+
+                synchronized(index.modules) {
+                    index.modules.add(moduleFile.modulePath, moduleFile)
+                }
+            }
+        }
+    }
+
+    private fun remove(index: Index, rootFiles: RootFiles, relativePath: String, file: VirtualFile) {
+        rootFiles.files.remove(rootFiles.key(relativePath), file)
+
+        if (rootFiles.isSourceRoot) {
+            val extension = index.extensions.firstOrNull { relativePath.endsWith(it) } ?: return
+            val moduleFile = ModuleFile(getModulePath(relativePath, extension), file)
+
+            synchronized(index.modules) {
+                index.modules.remove(moduleFile.modulePath, moduleFile)
+            }
+        }
+    }
+
+    private fun getModulePath(relativePath: String, extension: String): String {
+        return relativePath.substring(0, relativePath.length - extension.length).replace('/', '.')
+    }
+
+    private fun update(event: VFileEvent) {
+        val index = this.index.get() ?: return
+
+        // The destination may be in a root even if the source isn't.
+        if (event is VFileMoveEvent) {
+            invalidate()
+            return
+        }
+
+        val path = event.path
+
+        // Only events affecting our roots are of interest.
+        val affectedRoots = index.allRoots.filter {
+            FileUtil.isAncestor(it.rootPath, path, false) || FileUtil.isAncestor(path, it.rootPath, false)
+        }
+
+        if (affectedRoots.isEmpty()) {
+            return
+        }
+
+        val file = event.file
+
+        when {
+            // A single file was created or deleted, the common case, which we can update in place.
+            event is VFileCreateEvent && file != null && !file.isDirectory -> {
+                affectedRoots.forEach {
+                    if (VfsUtilCore.isAncestor(it.root, file, true)) {
+                        add(index, it, file)
+                    }
+                }
+            }
+            event is VFileDeleteEvent && file != null && !file.isDirectory -> {
+                affectedRoots.forEach { rootFiles ->
+                    FileUtil.getRelativePath(rootFiles.rootPath, path, '/')?.let {
+                        remove(index, rootFiles, it, file)
+                    }
+                }
+            }
+            else -> invalidate()
+        }
+    }
+}
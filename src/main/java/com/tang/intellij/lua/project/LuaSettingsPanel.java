@@ -25,7 +25,10 @@ import com.intellij.openapi.project.ProjectManager;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.FileContentUtil;
+import com.intellij.util.indexing.FileBasedIndex;
 import com.tang.intellij.lua.lang.LuaLanguageLevel;
+import com.tang.intellij.lua.search.InferDependencyTracker;
+import com.tang.intellij.lua.stubs.index.LuaLargeFileIndex;
 import org.jetbrains.annotations.Nls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -126,7 +129,11 @@ public class LuaSettingsPanel implements SearchableConfigurable, Configurable.No
     public void apply() {
         settings.setRequireLikeFunctionNamesString(requireFunctionNames.getText());
         requireFunctionNames.setText(settings.getRequireLikeFunctionNamesString());
-        settings.setTooLargerFileThreshold(getTooLargerFileThreshold());
+        if (settings.getTooLargerFileThreshold() != getTooLargerFileThreshold()) {
+            settings.setTooLargerFileThreshold(getTooLargerFileThreshold());
+            // Which files are indexed as large files depends on the threshold.
+            FileBasedIndex.getInstance().requestRebuild(LuaLargeFileIndex.Companion.getNAME());
+        }
         settings.setStrictDoc(strictDoc.isSelected());
         settings.setSmartCloseEnd(smartCloseEnd.isSelected());
         settings.setShowWordsInFile(showWordsInFile.isSelected());
@@ -138,6 +145,10 @@ public class LuaSettingsPanel implements SearchableConfigurable, Configurable.No
         settings.setAttachDebugCaptureStd(captureStd.isSelected());
         settings.setAttachDebugDefaultCharsetName((String) Objects.requireNonNull(defaultCharset.getSelectedItem()));
         LuaLanguageLevel selectedLevel = (LuaLanguageLevel) Objects.requireNonNull(languageLevel.getSelectedItem());
+        // Settings (e.g. strict nil) influence inference, so previously inferred types can no longer be trusted.
+        for (Project project : ProjectManager.getInstance().getOpenProjects()) {
+            InferDependencyTracker.Companion.getInstance(project).invalidateAll();
+        }
         if (selectedLevel != settings.getLanguageLevel()) {
             settings.setLanguageLevel(selectedLevel);
             StdLibraryProvider.Companion.reload();
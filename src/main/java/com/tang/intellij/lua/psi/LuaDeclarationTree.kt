@@ -16,17 +16,30 @@
 
 package com.tang.intellij.lua.psi
 
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.application.ApplicationListener
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.project.Project
 import com.intellij.openapi.util.Key
 import com.intellij.psi.PsiElement
 import com.intellij.psi.PsiFile
+import com.intellij.psi.PsiManager
 import com.intellij.psi.PsiNamedElement
+import com.intellij.psi.PsiTreeChangeAdapter
+import com.intellij.psi.PsiTreeChangeEvent
+import com.intellij.psi.util.PsiTreeUtil
 import com.intellij.util.BitUtil
+import com.intellij.util.SmartList
 import java.util.*
 
+private val key = Key.create<LuaDeclarationTree>("lua.object.tree.declarations")
+
 interface LuaDeclarationTree {
     companion object {
-        private val key = Key.create<LuaDeclarationTree>("lua.object.tree.declarations")
         fun get(file: PsiFile): LuaDeclarationTree {
+            // Trees are updated in place, which is only safe while no read actions can be walking them.
+            LuaDeclarationTreeUpdater.getInstance(file.project).flush()
+
             var ret = file.getUserData(key)
             if (ret != null && ret.shouldRebuild()) {
                 file.putUserData(key, null)
@@ -75,13 +88,21 @@ interface LuaDeclarationTree {
     }
 }
 
-private abstract class DeclarationTreeNode {
+private abstract class DeclarationTreeNode(val tree: LuaDeclarationTreeBase, val element: PsiElement) {
     var next: DeclarationTreeNode? = null
     var prev: DeclarationTreeNode? = null
-    abstract val pos: Int
+
+    init {
+        // Stub trees number elements in the order they're first positioned.
+        tree.getPosition(element)
+    }
+
+    // Positions are only ever compared, so PSI trees use live offsets, which remain correct as scopes around them are
+    // rebuilt.
+    val pos: Int get() = tree.getPosition(element)
 }
 
-private abstract class DeclarationTreeNodeContainer : DeclarationTreeNode() {
+private abstract class DeclarationTreeNodeContainer(tree: LuaDeclarationTreeBase, element: PsiElement) : DeclarationTreeNode(tree, element) {
     protected val children = mutableListOf<DeclarationTreeNode>()
     private var _first: DeclarationTreeNode? = null
     private var _last: DeclarationTreeNode? = null
@@ -95,6 +116,22 @@ private abstract class DeclarationTreeNodeContainer : DeclarationTreeNode() {
         _last = child
     }
 
+    fun replace(child: DeclarationTreeNode, replacement: DeclarationTreeNode) {
+        children[children.indexOf(child)] = replacement
+        replacement.prev = child.prev
+        replacement.next = child.next
+
+        if (_first === child)
+            _first = replacement
+        else
+            child.prev?.next = replacement
+
+        if (_last === child)
+            _last = replacement
+        else
+            child.next?.prev = replacement
+    }
+
     fun <T> processNode(clazz: Class<T>, process: (node: T) -> Boolean): Boolean {
         var cur: DeclarationTreeNode? = _first
         while (cur != null) {
@@ -124,19 +161,29 @@ private abstract class DeclarationTreeNodeContainer : DeclarationTreeNode() {
 
 private class Declaration(
         override val name: String,
-        override val pos: Int,
+        tree: LuaDeclarationTreeBase,
         override val psi: PsiNamedElement,
         val flags: Int,
         val prevDeclaration: Declaration? = null
-) : DeclarationTreeNode(), LuaDeclarationTree.IDeclaration {
-    private val children = mutableMapOf<String, Declaration>()
+) : DeclarationTreeNode(tree, psi), LuaDeclarationTree.IDeclaration {
+    // Ordered by position, as fields may be removed and re-added when the scopes assigning them are rebuilt.
+    private val children = mutableMapOf<String, MutableList<Declaration>>()
 
     fun findField(name: String): Declaration? {
-        return children[name]
+        return children[name]?.lastOrNull()
     }
 
     fun addField(child: Declaration) {
-        children[child.name] = child
+        val fields = children.getOrPut(child.name) { SmartList() }
+        val pos = child.pos
+        fields.add(fields.indexOfLast { it.pos <= pos } + 1, child)
+    }
+
+    fun removeField(child: Declaration) {
+        val fields = children[child.name] ?: return
+        fields.remove(child)
+        if (fields.isEmpty())
+            children.remove(child.name)
     }
 
     override val firstDeclaration: Declaration get() = prevDeclaration?.firstDeclaration ?: this
@@ -158,10 +205,28 @@ private class DeclarationFlag {
 }
 
 private open class Scope(
-        val tree: LuaDeclarationTreeBase,
-        override val pos: Int,
+        tree: LuaDeclarationTreeBase,
+        psi: PsiElement,
         val parent: Scope? = null
-) : DeclarationTreeNodeContainer() {
+) : DeclarationTreeNodeContainer(tree, psi) {
+    // Fields this scope assigned, to declarations that may belong to other scopes, so they can be removed when this
+    // scope is rebuilt.
+    private var assignedFields: MutableList<Pair<Declaration, Declaration>>? = null
+
+    fun addField(owner: Declaration, field: Declaration) {
+        owner.addField(field)
+        val fields = assignedFields ?: SmartList<Pair<Declaration, Declaration>>().also { assignedFields = it }
+        fields.add(Pair(owner, field))
+    }
+
+    fun removeFields() {
+        processNode(Scope::class.java) {
+            it.removeFields()
+            true
+        }
+        assignedFields?.forEach { (owner, field) -> owner.removeField(field) }
+        assignedFields = null
+    }
 
     open fun walkOver(process: (declaration: Declaration) -> Boolean): Boolean {
         return true
@@ -207,20 +272,22 @@ private abstract class LuaDeclarationTreeBase(val file: PsiFile) : LuaRecursiveV
         val scopeKey = Key.create<Scope>("lua.object.tree.declarations.scope")
     }
 
-    val modificationStamp: Long = file.modificationStamp
+    var modificationStamp: Long = file.modificationStamp
 
     private val scopes = Stack<Scope>()
     private var topScope: Scope? = null
     private var curScope: Scope? = null
 
+    // The scope being rebuilt, which is replaced by the first scope pushed.
+    private var replacedScope: Scope? = null
+
     override fun shouldRebuild(): Boolean {
         return modificationStamp != file.modificationStamp
     }
 
     private fun push(psi: LuaDeclarationScope): Scope {
-        val pos = getPosition(psi)
         if (psi is LuaLocalDefStat) { // local a = a
-            return push(object : Scope(this, pos, curScope) {
+            return push(object : Scope(this, psi, curScope) {
                 override fun walkOver(process: (declaration: Declaration) -> Boolean): Boolean {
                     return processNode(Declaration::class.java, process)
                 }
@@ -231,7 +298,7 @@ private abstract class LuaDeclarationTreeBase(val file: PsiFile) : LuaRecursiveV
             }, psi)
         }
         if (psi is LuaRepeatStat) { // repeat local a = false until a
-            return push(object : Scope(this, pos, curScope) {
+            return push(object : Scope(this, psi, curScope) {
                 override fun walkUp(pos: Int, lev: Int, process: (declaration: Declaration) -> Boolean) {
                     val blockScope = children.firstOrNull() as? Scope
                     if (lev == 0 && blockScope != null)
@@ -241,7 +308,7 @@ private abstract class LuaDeclarationTreeBase(val file: PsiFile) : LuaRecursiveV
             }, psi)
         }
         if (psi is LuaForBStat) { // for _, a in ipairs(a) do end
-            return push(object : Scope(this, pos, curScope){
+            return push(object : Scope(this, psi, curScope){
                 override fun walkUp(pos: Int, lev: Int, process: (declaration: Declaration) -> Boolean) {
                     if (lev == 0) {
                         this.parent?.walkUp(pos, lev, process)
@@ -249,7 +316,7 @@ private abstract class LuaDeclarationTreeBase(val file: PsiFile) : LuaRecursiveV
                 }
             }, psi)
         }
-        return push(Scope(this, pos, curScope), psi)
+        return push(Scope(this, psi, curScope), psi)
     }
 
     private fun push(scope: Scope, psi: PsiElement): Scope {
@@ -258,7 +325,11 @@ private abstract class LuaDeclarationTreeBase(val file: PsiFile) : LuaRecursiveV
             if (topScope == null)
                 topScope = scope
             psi.putUserData(scopeKey, scope)
-            curScope?.add(scope)
+            val replaced = replacedScope
+            if (replaced != null) {
+                curScope?.replace(replaced, scope)
+                replacedScope = null
+            } else curScope?.add(scope)
             curScope = scope
         }
         return scope
@@ -283,6 +354,23 @@ private abstract class LuaDeclarationTreeBase(val file: PsiFile) : LuaRecursiveV
         }
     }
 
+    /**
+     * Rebuilds only [scope], which was built from [psi]. Declarations outside a scope cannot refer to those within it
+     * (except for those of a local statement, which mustn't be rebuilt alone), so only the fields it assigned to
+     * declarations in enclosing scopes need to be removed.
+     */
+    fun rebuildScope(psi: LuaDeclarationScope, scope: Scope) {
+        synchronized(scopes) {
+            scope.removeFields()
+            scopes.clear()
+            topScope = scope.parent
+            curScope = scope.parent
+            replacedScope = scope
+            psi.accept(this)
+            replacedScope = null
+        }
+    }
+
     abstract fun findScope(psi: PsiElement): Scope?
 
     abstract fun getPosition(psi: PsiElement): Int
@@ -295,7 +383,7 @@ private abstract class LuaDeclarationTreeBase(val file: PsiFile) : LuaRecursiveV
 
     private fun createDeclaration(name: String, psi: PsiNamedElement, flags: Int): Declaration {
         val first = if (psi is LuaExpression<*>) find(psi) else null
-        return Declaration(name, getPosition(psi), psi, flags, first)
+        return Declaration(name, this, psi, flags, first)
     }
 
     override fun find(expression: LuaExpression<*>): Declaration? {
@@ -325,7 +413,9 @@ private abstract class LuaDeclarationTreeBase(val file: PsiFile) : LuaRecursiveV
         val name = o.name
         if (name != null) {
             val parentExpr = o.classMethodName.expression
-            find(parentExpr)?.addField(createDeclaration(name, o, DeclarationFlag.Function or DeclarationFlag.ClassMember))
+            find(parentExpr)?.let {
+                curScope?.addField(it, createDeclaration(name, o, DeclarationFlag.Function or DeclarationFlag.ClassMember))
+            }
         }
         super.visitClassMethodDefStat(o)
     }
@@ -342,8 +432,10 @@ private abstract class LuaDeclarationTreeBase(val file: PsiFile) : LuaRecursiveV
                 val fieldName = expr.name ?: (expr.idExpr as? LuaLiteralExpr)?.let { "[${it.text}]" }
 
                 if (fieldName != null) {
-                    val declaration = curScope?.find(expr.prefixExpression)
-                    declaration?.addField(createDeclaration(fieldName, expr, DeclarationFlag.ClassMember))
+                    val scope = curScope
+                    val declaration = scope?.find(expr.prefixExpression)
+                    if (declaration != null)
+                        scope.addField(declaration, createDeclaration(fieldName, expr, DeclarationFlag.ClassMember))
                 }
             }
         }
@@ -364,6 +456,55 @@ private abstract class LuaDeclarationTreeBase(val file: PsiFile) : LuaRecursiveV
 }
 
 private class LuaDeclarationTreePsi(file: PsiFile) : LuaDeclarationTreeBase(file) {
+    private val changedScopes = LinkedHashSet<LuaDeclarationScope>()
+    private var changedFile = false
+
+    /**
+     * Records a change to [element] (or the file, if null), to be applied by [update].
+     */
+    fun changed(element: PsiElement?) {
+        if (changedFile)
+            return
+
+        // The innermost scope that can be rebuilt alone.
+        var cur: PsiElement? = element
+        while (cur != null && cur !is PsiFile) {
+            if (cur is LuaDeclarationScope && cur !is LuaLocalDefStat) {
+                changedScopes.add(cur)
+                return
+            }
+            cur = cur.parent
+        }
+
+        changedFile = true
+        changedScopes.clear()
+    }
+
+    /**
+     * Rebuilds the scopes containing changes. Returns false if the whole tree must be rebuilt instead.
+     */
+    fun update(): Boolean {
+        val changed = changedScopes.toList()
+        changedScopes.clear()
+
+        if (changedFile || !file.isValid)
+            return false
+
+        val roots = changed.filter { psi ->
+            psi.isValid && changed.none { it !== psi && PsiTreeUtil.isAncestor(it, psi, true) }
+        }
+
+        for (psi in roots) {
+            val scope = psi.getUserData(scopeKey)
+            if (scope == null || scope.tree !== this || scope.parent == null)
+                return false
+            rebuildScope(psi, scope)
+        }
+
+        modificationStamp = file.modificationStamp
+        return true
+    }
+
     override fun findScope(psi: PsiElement): Scope? {
         var cur: PsiElement? = psi
         while (cur != null) {
@@ -430,3 +571,62 @@ private class LuaDeclarationTreeStub(file: PsiFile) : LuaDeclarationTreeBase(fil
         return map.getOrPut(psi) { count++ }
     }
 }
+
+/**
+ * Updates the [LuaDeclarationTree]s of edited files in place, rebuilding only the scopes containing changes.
+ *
+ * Changes are recorded as the PSI is modified, and applied before the write action ends (or when a tree is requested
+ * within it), so no read action can be walking a tree as it's updated.
+ */
+class LuaDeclarationTreeUpdater(project: Project) : Disposable {
+    companion object {
+        fun getInstance(project: Project): LuaDeclarationTreeUpdater {
+            return project.getService(LuaDeclarationTreeUpdater::class.java)
+        }
+    }
+
+    // Only accessed with write access.
+    private val changedFiles = LinkedHashSet<PsiFile>()
+
+    init {
+        PsiManager.getInstance(project).addPsiTreeChangeListener(object : PsiTreeChangeAdapter() {
+            override fun childAdded(event: PsiTreeChangeEvent) = changed(event.file, event.parent)
+            override fun childRemoved(event: PsiTreeChangeEvent) = changed(event.file, event.parent)
+            override fun childReplaced(event: PsiTreeChangeEvent) = changed(event.file, event.parent)
+            override fun childrenChanged(event: PsiTreeChangeEvent) = changed(event.file, event.parent)
+            override fun childMoved(event: PsiTreeChangeEvent) {
+                changed(event.file, event.oldParent)
+                changed(event.file, event.newParent)
+            }
+            override fun propertyChanged(event: PsiTreeChangeEvent) = changed(event.file, null)
+        }, this)
+
+        ApplicationManager.getApplication().addApplicationListener(object : ApplicationListener {
+            override fun writeActionFinished(action: Any) = flush()
+        }, this)
+    }
+
+    override fun dispose() {
+        changedFiles.clear()
+    }
+
+    private fun changed(file: PsiFile?, element: PsiElement?) {
+        val tree = file?.getUserData(key) as? LuaDeclarationTreePsi ?: return
+        tree.changed(element)
+        changedFiles.add(file)
+    }
+
+    fun flush() {
+        if (!ApplicationManager.getApplication().isWriteAccessAllowed || changedFiles.isEmpty())
+            return
+
+        val files = changedFiles.toList()
+        changedFiles.clear()
+
+        files.forEach { file ->
+            val tree = file.getUserData(key) as? LuaDeclarationTreePsi
+            if (tree != null && !tree.update())
+                file.putUserData(key, null)
+        }
+    }
+}
@@ -18,7 +18,11 @@ package com.tang.intellij.lua.psi
 import com.intellij.openapi.util.Key
 import com.intellij.psi.PsiElement
 import com.intellij.psi.PsiFile
+import com.intellij.psi.util.CachedValue
+import com.intellij.psi.util.CachedValueProvider
+import com.intellij.psi.util.CachedValuesManager
 import com.intellij.psi.util.PsiTreeUtil
+import com.intellij.util.SmartList
 import com.tang.intellij.lua.comment.LuaCommentUtil
 import com.tang.intellij.lua.comment.psi.*
 import com.tang.intellij.lua.comment.psi.api.LuaComment
@@ -95,6 +99,10 @@ private class ScopedTypeTreeScope(override val psi: LuaTypeScope, override val t
     override val name = LuaScopedTypeTreeScope.scopeNameFromPsi(psi)
 
     private val types = ArrayList<LuaScopedType>(0)
+
+    // Positions of types in [types], by name, ascending.
+    private var namePositions: MutableMap<String, MutableList<Int>>? = null
+
     private val childScopes = LinkedList<ScopedTypeTreeScope>()
 
     private var dumbCachedOwner: ITy? = null
@@ -108,11 +116,13 @@ private class ScopedTypeTreeScope(override val psi: LuaTypeScope, override val t
     }
 
     fun add(type: LuaScopedType) {
+        val positions = namePositions ?: HashMap<String, MutableList<Int>>().also { namePositions = it }
+        positions.getOrPut(type.name) { SmartList() }.add(types.size)
         types.add(type)
     }
 
     fun addAll(type: Collection<LuaScopedType>) {
-        types.addAll(type)
+        type.forEach { add(it) }
     }
 
     inline fun forEach(action: (LuaScopedType) -> Unit) {
@@ -124,16 +134,17 @@ private class ScopedTypeTreeScope(override val psi: LuaTypeScope, override val t
     }
 
     fun indexOf(type: LuaScopedType): Int? {
-        val index = types.indexOf(type)
-        return if (index >= 0) index else null
+        return namePositions?.get(type.name)?.firstOrNull { types[it] == type }
     }
 
     fun get(name: String, beforeIndex: Int): LuaScopedType? {
-        for (i in beforeIndex - 1 downTo 0) {
-            val type = types[i]
+        val positions = namePositions?.get(name) ?: return null
+
+        for (i in positions.size - 1 downTo 0) {
+            val position = positions[i]
 
-            if (type.name == name) {
-                return type
+            if (position < beforeIndex) {
+                return types[position]
             }
         }
 
@@ -141,13 +152,7 @@ private class ScopedTypeTreeScope(override val psi: LuaTypeScope, override val t
     }
 
     fun get(name: String): LuaScopedType? {
-        types.forEach {
-            if (it.name == name) {
-                return it
-            }
-        }
-
-        return null
+        return namePositions?.get(name)?.let { types[it.first()] }
     }
 
     override fun findName(context: SearchContext, name: String, beforeIndex: Int?): LuaScopedType? {
@@ -164,17 +169,15 @@ private class ScopedTypeTreeScope(override val psi: LuaTypeScope, override val t
         val cls: ITy? = findOwner(context)
 
         if (cls?.isAnonymous == false) {
-            val classTag = if (cls is TySerializedClass) {
+            val classTag: LuaDocTagClass? = if (cls is TySerializedClass) {
                 LuaClassIndex.find(context, cls.className)
             } else if (cls is TyPsiDocClass) {
                 cls.psi
             } else null
 
             // Need to ensure we don't check the same scope *without* beforeIndex
-            if (classTag != psi) {
-                val genericDef = PsiTreeUtil.getStubChildrenOfTypeAsList(classTag, LuaDocGenericDef::class.java).firstOrNull {
-                    it.name == name
-                }
+            if (classTag != null && classTag != psi) {
+                val genericDef = findClassGenericDef(classTag, name)
 
                 if (genericDef != null) {
                     return genericDef
@@ -237,6 +240,27 @@ private class ScopedTypeTreeScope(override val psi: LuaTypeScope, override val t
     }
 }
 
+private val KEY_CLASS_GENERIC_DEFS = Key.create<CachedValue<Map<String, LuaDocGenericDef>>>("lua.object.tree.types.class_generic_defs")
+
+// A class' generic defs are looked up from every scope within the class' members, so they're kept in a table by name.
+private fun findClassGenericDef(classTag: LuaDocTagClass, name: String): LuaDocGenericDef? {
+    val genericDefs = CachedValuesManager.getCachedValue(classTag, KEY_CLASS_GENERIC_DEFS) {
+        val map = HashMap<String, LuaDocGenericDef>()
+
+        PsiTreeUtil.getStubChildrenOfTypeAsList(classTag, LuaDocGenericDef::class.java).forEach {
+            val defName: String? = it.name
+
+            if (defName != null) {
+                map.putIfAbsent(defName, it)
+            }
+        }
+
+        CachedValueProvider.Result.create(map, classTag)
+    }
+
+    return genericDefs[name]
+}
+
 private class FoundScope(override val scope: ScopedTypeTreeScope, psiScopedTypeIndex: Int? = null): FoundLuaScope(scope, psiScopedTypeIndex)
 
 private abstract class ScopedTypeTree(val file: LuaPsiFile) : LuaRecursiveVisitor(), LuaScopedTypeTree {
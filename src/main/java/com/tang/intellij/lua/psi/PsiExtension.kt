@@ -271,6 +271,13 @@ val LuaFuncBodyOwner<*>.overloads: Array<IFunSignature> get() {
     return stub?.overloads ?: (this as? LuaCommentOwner)?.comment?.overloads ?: arrayOf()
 }
 
+/**
+ * Whether the function has overloads. Unlike [overloads], doesn't decode a stub's overload signatures.
+ */
+val LuaFuncBodyOwner<*>.hasOverloads: Boolean get() {
+    return stub?.hasOverloads ?: overloads.isNotEmpty()
+}
+
 val LuaFuncBodyOwner<*>.genericParams: Array<TyGenericParameter>? get() {
     val stub = this.stub
 
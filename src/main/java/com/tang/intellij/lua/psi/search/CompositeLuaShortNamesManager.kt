@@ -18,7 +18,9 @@ package com.tang.intellij.lua.psi.search
 
 import com.intellij.openapi.extensions.ExtensionPointName
 import com.intellij.openapi.project.Project
+import com.intellij.psi.search.GlobalSearchScope
 import com.intellij.util.Processor
+import com.intellij.util.indexing.IdFilter
 import com.tang.intellij.lua.psi.LuaClass
 import com.tang.intellij.lua.psi.LuaPsiTypeMember
 import com.tang.intellij.lua.psi.LuaTypeAlias
@@ -71,6 +73,14 @@ class CompositeLuaShortNamesManager : LuaShortNamesManager {
         return true
     }
 
+    override fun processAllClasses(scope: GlobalSearchScope, idFilter: IdFilter?, processor: Processor<String>): Boolean {
+        for (manager in EP_NAME.extensionList) {
+            if (!manager.processAllClasses(scope, idFilter, processor))
+                return false
+        }
+        return true
+    }
+
     override fun processClasses(context: SearchContext, name: String, processor: Processor<in LuaClass>): Boolean {
         for (manager in EP_NAME.extensionList) {
             if (!manager.processClasses(context, name, processor))
@@ -18,6 +18,8 @@ package com.tang.intellij.lua.psi.search
 
 import com.intellij.openapi.application.QueryExecutorBase
 import com.intellij.openapi.project.DumbService
+import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.psi.search.ProjectAndLibrariesScope
 import com.intellij.util.Processor
 import com.tang.intellij.lua.ty.ITyClass
 import com.tang.intellij.lua.ty.createSerializedClass
@@ -28,8 +30,11 @@ import com.tang.intellij.lua.ty.createSerializedClass
  */
 class LuaAllClassesSearchExecutor : QueryExecutorBase<ITyClass, LuaAllClassesSearch.SearchParameters>() {
     override fun processQuery(searchParameters: LuaAllClassesSearch.SearchParameters, processor: Processor<in ITyClass>) {
-        DumbService.getInstance(searchParameters.project).runReadActionInSmartMode {
-            LuaShortNamesManager.getInstance(searchParameters.project).processAllClasses(searchParameters.project) { typeName ->
+        val project = searchParameters.project
+        val scope = searchParameters.searchScope as? GlobalSearchScope ?: ProjectAndLibrariesScope(project)
+
+        DumbService.getInstance(project).runReadActionInSmartMode {
+            LuaShortNamesManager.getInstance(project).processAllClasses(scope, null) { typeName ->
                 //todo no TySerializedClass
                 processor.process(createSerializedClass(typeName))
             }
@@ -18,7 +18,9 @@ package com.tang.intellij.lua.psi.search
 
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.util.Key
+import com.intellij.psi.search.GlobalSearchScope
 import com.intellij.util.Processor
+import com.intellij.util.indexing.IdFilter
 import com.tang.intellij.lua.psi.LuaClass
 import com.tang.intellij.lua.psi.LuaPsiTypeMember
 import com.tang.intellij.lua.psi.LuaTypeAlias
@@ -51,6 +53,14 @@ interface LuaShortNamesManager {
 
     fun processAllClasses(project: Project, processor: Processor<String>): Boolean
 
+    /**
+     * Processes the names of all classes declared in files within [scope].
+     */
+    fun processAllClasses(scope: GlobalSearchScope, idFilter: IdFilter?, processor: Processor<String>): Boolean {
+        val project = scope.project ?: return true
+        return processAllClasses(project, processor)
+    }
+
     fun processAliases(context: SearchContext, name: String, processor: Processor<in LuaTypeAlias>): Boolean
 
     fun processClasses(context: SearchContext, name: String, processor: Processor<in LuaClass>): Boolean
@@ -17,16 +17,21 @@
 package com.tang.intellij.lua.psi.search
 
 import com.intellij.openapi.project.Project
+import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.psi.search.ProjectAndLibrariesScope
 import com.intellij.util.Processor
 import com.intellij.util.containers.ContainerUtil
+import com.intellij.util.indexing.IdFilter
 import com.tang.intellij.lua.psi.LuaClass
 import com.tang.intellij.lua.psi.LuaPsiTypeMember
 import com.tang.intellij.lua.psi.LuaTypeAlias
+import com.tang.intellij.lua.search.InferDependencies
 import com.tang.intellij.lua.search.SearchContext
 import com.tang.intellij.lua.stubs.index.LuaAliasIndex
 import com.tang.intellij.lua.stubs.index.LuaClassIndex
 import com.tang.intellij.lua.stubs.index.LuaClassMemberIndex
 import com.tang.intellij.lua.stubs.index.ProcessLuaPsiClassMember
+import com.tang.intellij.lua.stubs.index.StubKeys
 import com.tang.intellij.lua.ty.ITy
 import com.tang.intellij.lua.ty.ITyClass
 import com.tang.intellij.lua.ty.ITySubstitutor
@@ -46,11 +51,16 @@ class LuaShortNamesManagerImpl : LuaShortNamesManager {
     }
 
     override fun processAliases(context: SearchContext, name: String, processor: Processor<in LuaTypeAlias>): Boolean {
+        InferDependencies.record(StubKeys.ALIAS, name)
         return ContainerUtil.process(LuaAliasIndex.instance.get(name, context.project, context.scope), processor)
     }
 
     override fun processAllClasses(project: Project, processor: Processor<String>): Boolean {
-        return LuaClassIndex.processKeys(project, processor)
+        return processAllClasses(ProjectAndLibrariesScope(project), null, processor)
+    }
+
+    override fun processAllClasses(scope: GlobalSearchScope, idFilter: IdFilter?, processor: Processor<String>): Boolean {
+        return LuaClassIndex.processKeys(scope, idFilter, processor)
     }
 
     override fun processClasses(context: SearchContext, name: String, processor: Processor<in LuaClass>): Boolean {
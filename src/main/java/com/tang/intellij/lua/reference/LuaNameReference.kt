@@ -18,10 +18,13 @@ package com.tang.intellij.lua.reference
 
 import com.intellij.openapi.util.TextRange
 import com.intellij.psi.PsiElement
-import com.intellij.psi.PsiReferenceBase
+import com.intellij.psi.PsiElementResolveResult
+import com.intellij.psi.PsiPolyVariantReferenceBase
+import com.intellij.psi.ResolveResult
 import com.intellij.util.IncorrectOperationException
 import com.tang.intellij.lua.psi.LuaElementFactory
 import com.tang.intellij.lua.psi.LuaNameExpr
+import com.tang.intellij.lua.psi.multiResolve
 import com.tang.intellij.lua.psi.resolve
 import com.tang.intellij.lua.search.SearchContext
 
@@ -29,7 +32,7 @@ import com.tang.intellij.lua.search.SearchContext
  *
  * Created by tangzx on 2016/11/26.
  */
-class LuaNameReference internal constructor(element: LuaNameExpr) : PsiReferenceBase<LuaNameExpr>(element), LuaReference {
+class LuaNameReference internal constructor(element: LuaNameExpr) : PsiPolyVariantReferenceBase<LuaNameExpr>(element), LuaReference {
     private val id: PsiElement = element.id
 
     override fun getRangeInElement(): TextRange {
@@ -45,7 +48,7 @@ class LuaNameReference internal constructor(element: LuaNameExpr) : PsiReference
     }
 
     override fun resolve(): PsiElement? {
-        return resolve(SearchContext.get(myElement.project))
+        return resolveWithCaching(this)
     }
 
     override fun resolve(context: SearchContext): PsiElement? {
@@ -53,6 +56,14 @@ class LuaNameReference internal constructor(element: LuaNameExpr) : PsiReference
         return if (resolve === myElement) null else resolve
     }
 
+    override fun multiResolve(incompleteCode: Boolean): Array<ResolveResult> {
+        return multiResolveWithCaching(this) { context ->
+            multiResolve(context, myElement).mapNotNull {
+                if (it === myElement) null else PsiElementResolveResult(it)
+            }.toTypedArray()
+        }
+    }
+
     override fun isReferenceTo(element: PsiElement): Boolean {
         return myElement.manager.areElementsEquivalent(element, resolve())
     }
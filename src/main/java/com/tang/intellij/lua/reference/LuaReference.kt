@@ -16,9 +16,16 @@
 
 package com.tang.intellij.lua.reference
 
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.util.RecursionManager
 import com.intellij.psi.PsiElement
 import com.intellij.psi.PsiReference
+import com.intellij.psi.ResolveResult
+import com.intellij.psi.impl.source.resolve.ResolveCache
+import com.tang.intellij.lua.search.InferDependencies
+import com.tang.intellij.lua.search.InferDependencyTracker
 import com.tang.intellij.lua.search.SearchContext
+import com.tang.intellij.lua.search.recursionGuardHits
 
 /**
  *
@@ -27,3 +34,74 @@ import com.tang.intellij.lua.search.SearchContext
 interface LuaReference : PsiReference {
     fun resolve(context: SearchContext): PsiElement?
 }
+
+private class Resolution<T>(val value: T, val dependencies: InferDependencyTracker.Snapshot)
+
+/**
+ * A reference's resolve results, held in [ResolveCache] so that they're dropped whenever PSI changes.
+ */
+private class CachedResolutions {
+    @Volatile
+    var resolved: Resolution<PsiElement?>? = null
+
+    @Volatile
+    var multiResolved: Resolution<Array<ResolveResult>>? = null
+}
+
+private val cachedResolutionsResolver = ResolveCache.AbstractResolver<LuaReference, CachedResolutions> { _, _ ->
+    CachedResolutions()
+}
+
+private fun <T> resolveWithCaching(
+    reference: LuaReference,
+    get: (CachedResolutions) -> Resolution<T>?,
+    set: (CachedResolutions, Resolution<T>) -> Unit,
+    resolve: (context: SearchContext) -> T
+): T {
+    val project = reference.element.project
+    val context = SearchContext.get(project)
+
+    if (!context.isProjectCacheable) {
+        return resolve(context)
+    }
+
+    val cachedResolutions = ResolveCache.getInstance(project).resolveWithCaching(reference, cachedResolutionsResolver, false, false)
+        ?: return resolve(context)
+    val tracker = InferDependencyTracker.getInstance(project)
+
+    // Resolution also depends on things that don't modify PSI, like source roots, which the dependency tracker observes.
+    get(cachedResolutions)?.let {
+        if (tracker.isValid(it.dependencies)) {
+            InferDependencies.record(it.dependencies.dependencies.asList())
+            return it.value
+        }
+    }
+
+    val stackStamp = RecursionManager.markStack()
+    val guardHits = recursionGuardHits
+    val (value, dependencies) = InferDependencies.track { resolve(context) }
+
+    // As with inference, results computed whilst recursion was being prevented may be incomplete.
+    if (stackStamp.mayCacheNow() && guardHits == recursionGuardHits) {
+        ProgressManager.checkCanceled()
+        set(cachedResolutions, Resolution(value, tracker.snapshot(dependencies)))
+    }
+
+    return value
+}
+
+/**
+ * Resolves [reference] against the project, reusing the result until PSI (or the project's indexes) next change.
+ */
+internal fun resolveWithCaching(reference: LuaReference): PsiElement? {
+    return resolveWithCaching(reference, { it.resolved }, { cached, resolution -> cached.resolved = resolution }) {
+        reference.resolve(it)
+    }
+}
+
+/**
+ * Poly-variant equivalent of [resolveWithCaching], [resolve] is called with a project search context.
+ */
+internal fun multiResolveWithCaching(reference: LuaReference, resolve: (context: SearchContext) -> Array<ResolveResult>): Array<ResolveResult> {
+    return resolveWithCaching(reference, { it.multiResolved }, { cached, resolution -> cached.multiResolved = resolution }, resolve)
+}
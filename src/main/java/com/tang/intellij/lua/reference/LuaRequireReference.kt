@@ -29,7 +29,7 @@ import com.tang.intellij.lua.ty.returnStatement
  *
  * Created by tangzx on 2016/12/9.
  */
-class LuaRequireReference internal constructor(callExpr: LuaCallExpr) : PsiReferenceBase<LuaCallExpr>(callExpr) {
+class LuaRequireReference internal constructor(callExpr: LuaCallExpr) : PsiReferenceBase<LuaCallExpr>(callExpr), LuaReference {
 
     private var pathString: String? = null
     private var range = TextRange.EMPTY_RANGE
@@ -63,6 +63,10 @@ class LuaRequireReference internal constructor(callExpr: LuaCallExpr) : PsiRefer
     }
 
     override fun resolve(): PsiElement? {
+        return resolveWithCaching(this)
+    }
+
+    override fun resolve(context: SearchContext): PsiElement? {
         if (pathString == null) {
             return null
         }
@@ -76,7 +80,7 @@ class LuaRequireReference internal constructor(callExpr: LuaCallExpr) : PsiRefer
                 val resolvedNameExpr = returnStatement.exprList!!.expressionList.first() as? LuaNameExpr
 
                 return if (resolvedNameExpr != null) {
-                    resolveInFile(SearchContext.get(myElement.project), resolvedNameExpr.name, resolvedNameExpr)
+                    resolveInFile(context, resolvedNameExpr.name, resolvedNameExpr)
                 } else returnStatement
             }
 
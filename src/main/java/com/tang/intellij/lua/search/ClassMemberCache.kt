@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.lua.search
+
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.util.RecursionManager
+import com.intellij.psi.PsiElement
+import com.intellij.util.containers.ContainerUtil
+import com.tang.intellij.lua.psi.LuaPsiTypeMember
+import com.tang.intellij.lua.ty.ITyClass
+import com.tang.intellij.lua.ty.TypeMember
+import java.util.concurrent.ConcurrentMap
+
+/**
+ * Memoizes class hierarchies and member tables, which are otherwise rebuilt from the stub index on every member lookup.
+ *
+ * Like [InferCache], each entry records the index keys it was derived from, and is only reused whilst
+ * [InferDependencyTracker] reports those keys as unchanged. Callers are responsible for only consulting the cache with
+ * a [SearchContext.isProjectCacheable] context.
+ *
+ * Entries reference PSI (members), so they're held softly, and each map is bounded, so that the cache never retains
+ * the PSI (and AST) of every class that has ever been searched.
+ */
+class ClassMemberCache(private val project: Project) {
+    companion object {
+        // Each map is simply cleared when it grows beyond this size.
+        private const val MAX_SIZE = 10000
+
+        fun getInstance(project: Project): ClassMemberCache {
+            return project.getService(ClassMemberCache::class.java)
+        }
+    }
+
+    /**
+     * A class (or alias) whose member keys are searched when looking up members of a class. A null [owner] refers to
+     * the class the search started from.
+     */
+    class HierarchyEntry(val owner: ITyClass?, val className: String)
+
+    private data class HierarchyKey(val className: String, val deep: Boolean)
+
+    private class CacheEntry<T>(val value: T, val dependencies: InferDependencyTracker.Snapshot)
+
+    private val hierarchies: ConcurrentMap<HierarchyKey, CacheEntry<List<HierarchyEntry>>> = ContainerUtil.createConcurrentSoftValueMap()
+    private val memberTables: ConcurrentMap<String, CacheEntry<List<TypeMember>>> = ContainerUtil.createConcurrentSoftValueMap()
+    private val indexMembers: ConcurrentMap<String, CacheEntry<Collection<LuaPsiTypeMember>>> = ContainerUtil.createConcurrentSoftValueMap()
+
+    @Volatile
+    private var epoch = -1L
+
+    /**
+     * The classes (and aliases) searched for members of [className], in search order, and without duplicates.
+     */
+    fun getHierarchy(className: String, deep: Boolean, compute: () -> List<HierarchyEntry>): List<HierarchyEntry> {
+        return getOrCompute(hierarchies, HierarchyKey(className, deep), compute) { true }
+    }
+
+    /**
+     * Members of [className], including inherited members that have not been overridden.
+     */
+    fun getMemberTable(className: String, compute: () -> List<TypeMember>): List<TypeMember> {
+        return getOrCompute(memberTables, className, compute) { members ->
+            members.all { (it as? PsiElement)?.isValid != false }
+        }
+    }
+
+    /**
+     * Members stored in the class member index under [key].
+     */
+    fun getIndexMembers(key: String, compute: () -> Collection<LuaPsiTypeMember>): Collection<LuaPsiTypeMember> {
+        return getOrCompute(indexMembers, key, compute) { members ->
+            members.all { it.isValid }
+        }
+    }
+
+    private fun <K, T> getOrCompute(cache: ConcurrentMap<K, CacheEntry<T>>, key: K, compute: () -> T, isValid: (T) -> Boolean): T {
+        val tracker = InferDependencyTracker.getInstance(project)
+        val currentEpoch = tracker.modificationEpoch
+
+        if (epoch != currentEpoch) {
+            // Everything was invalidated, there's no point retaining entries until they're next requested.
+            epoch = currentEpoch
+            hierarchies.clear()
+            memberTables.clear()
+            indexMembers.clear()
+        }
+
+        cache[key]?.let {
+            if (tracker.isValid(it.dependencies) && isValid(it.value)) {
+                InferDependencies.record(it.dependencies.dependencies.asList())
+                return it.value
+            }
+
+            cache.remove(key, it)
+        }
+
+        val stackStamp = RecursionManager.markStack()
+        val guardHits = recursionGuardHits
+        val (value, dependencies) = InferDependencies.track(compute)
+
+        // As with inference, results computed whilst recursion was being prevented may be incomplete.
+        if (stackStamp.mayCacheNow() && guardHits == recursionGuardHits) {
+            ProgressManager.checkCanceled()
+
+            if (cache.size >= MAX_SIZE) {
+                cache.clear()
+            }
+
+            cache[key] = CacheEntry(value, tracker.snapshot(dependencies))
+        }
+
+        return value
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.lua.search
+
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.util.RecursionManager
+import com.intellij.util.containers.ContainerUtil
+import com.tang.intellij.lua.ty.ITy
+import java.util.concurrent.ConcurrentMap
+
+/**
+ * Caches the results of structural shape checks, which compare every member of the target against the source, keyed by
+ * the target and source type instances and the variance flags. Types are compared by identity, so entries are only hit
+ * when the same instances are checked again, as is typical of inspections repeatedly checking cached inferred types (see
+ * [InferCache]) against a shape. Cheaper checks (e.g. generics) aren't worth the lookup and aren't cached.
+ *
+ * Types are resolved relative to the generic scope of the search context's element, so that's part of the key too, as
+ * identified by [SearchContext.typeScopeKey] (rather than by PSI). Results are only reused whilst [InferDependencyTracker]
+ * reports the index keys they were derived from as unchanged.
+ *
+ * Keys reference types, some of which are backed by PSI, so entries are held softly and the cache is bounded.
+ */
+class ContravarianceCache(private val project: Project) {
+    companion object {
+        // The cache is simply cleared when it grows beyond this size.
+        private const val MAX_SIZE = 10000
+
+        fun getInstance(project: Project): ContravarianceCache {
+            return project.getService(ContravarianceCache::class.java)
+        }
+    }
+
+    private enum class Relation {
+        CONTRAVARIANT,
+        EQUAL
+    }
+
+    private class Key(
+        val relation: Relation,
+        val target: ITy,
+        val source: ITy,
+        val varianceFlags: Int,
+        val typeScopeKey: String?,
+        val abstractGenericScopeNames: Set<String>?
+    ) {
+        private val hashCode = (((relation.hashCode() * 31 + System.identityHashCode(target)) * 31 + System.identityHashCode(source)) * 31
+                + varianceFlags) * 31 + (typeScopeKey?.hashCode() ?: 0)
+
+        override fun equals(other: Any?): Boolean {
+            return other is Key
+                    && other.hashCode == hashCode
+                    && other.relation == relation
+                    && other.target === target
+                    && other.source === source
+                    && other.varianceFlags == varianceFlags
+                    && other.typeScopeKey == typeScopeKey
+                    && other.abstractGenericScopeNames == abstractGenericScopeNames
+        }
+
+        override fun hashCode(): Int {
+            return hashCode
+        }
+    }
+
+    private class Entry(val result: Boolean, val dependencies: InferDependencyTracker.Snapshot)
+
+    private val entries: ConcurrentMap<Key, Entry> = ContainerUtil.createConcurrentSoftValueMap()
+
+    @Volatile
+    private var epoch = -1L
+
+    /**
+     * Whether [source] is contravariant of [target] under [varianceFlags], as computed by [compute].
+     */
+    fun contravariantOf(context: SearchContext, target: ITy, source: ITy, varianceFlags: Int, compute: () -> Boolean): Boolean {
+        return getOrCompute(context, Relation.CONTRAVARIANT, target, source, varianceFlags, compute)
+    }
+
+    /**
+     * Whether [source] is structurally equal to [target], as computed by [compute].
+     */
+    fun equalTo(context: SearchContext, target: ITy, source: ITy, compute: () -> Boolean): Boolean {
+        return getOrCompute(context, Relation.EQUAL, target, source, 0, compute)
+    }
+
+    private fun getOrCompute(context: SearchContext, relation: Relation, target: ITy, source: ITy, varianceFlags: Int, compute: () -> Boolean): Boolean {
+        if (!context.isProjectCacheable) {
+            return compute()
+        }
+
+        val key = Key(relation, target, source, varianceFlags, context.typeScopeKey, context.abstractGenericScopeNames)
+        val tracker = InferDependencyTracker.getInstance(project)
+        val currentEpoch = tracker.modificationEpoch
+
+        if (epoch != currentEpoch) {
+            // Everything was invalidated, there's no point retaining entries (or the types they reference).
+            epoch = currentEpoch
+            entries.clear()
+        }
+
+        entries[key]?.let {
+            if (tracker.isValid(it.dependencies)) {
+                InferDependencies.record(it.dependencies.dependencies.asList())
+                return it.result
+            }
+
+            entries.remove(key, it)
+        }
+
+        val stackStamp = RecursionManager.markStack()
+        val guardHits = recursionGuardHits
+        val (result, dependencies) = InferDependencies.track(compute)
+
+        // As with inference, results computed whilst recursion was being prevented may be incomplete.
+        if (stackStamp.mayCacheNow() && guardHits == recursionGuardHits) {
+            ProgressManager.checkCanceled()
+
+            if (entries.size >= MAX_SIZE) {
+                entries.clear()
+            }
+
+            entries[key] = Entry(result, tracker.snapshot(dependencies))
+        }
+
+        return result
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.lua.search
+
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.util.Key
+import com.intellij.openapi.util.RecursionManager
+import com.intellij.psi.PsiElement
+import com.intellij.psi.PsiFile
+import com.intellij.psi.util.CachedValue
+import com.intellij.psi.util.CachedValueProvider
+import com.intellij.psi.util.CachedValuesManager
+import com.tang.intellij.lua.psi.LuaPsiTypeGuessable
+import com.tang.intellij.lua.ty.ITy
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+
+/**
+ * Inferred types shared between all search contexts of a project.
+ *
+ * Results are stored against the file containing the inferred element, and keyed by the element along with the parts of
+ * the search context that influence inference. A file's results are discarded whenever the file changes. Inference
+ * freely crosses file boundaries (globals, classes, required modules etc.), so each result also records the index keys
+ * it was derived from, and is only reused whilst [InferDependencyTracker] reports those keys as unchanged.
+ */
+object InferCache {
+    private data class CacheKey(
+        val psi: LuaPsiTypeGuessable,
+        val index: Int,
+        val supportsMultipleResults: Boolean,
+        val abstractGenericScopeNames: Set<String>?,
+        val contextElement: PsiElement? // Influences narrowing e.g. optional parameters are nilable within their function
+    )
+
+    private class CacheEntry(val ty: ITy, val dependencies: InferDependencyTracker.Snapshot)
+
+    private val KEY_INFER_CACHE = Key.create<CachedValue<ConcurrentMap<CacheKey, CacheEntry>>>("lua.infer.cache")
+
+    private fun getFileCache(file: PsiFile): ConcurrentMap<CacheKey, CacheEntry> {
+        return CachedValuesManager.getCachedValue(file, KEY_INFER_CACHE) {
+            CachedValueProvider.Result.create(ConcurrentHashMap(), file)
+        }
+    }
+
+    fun getOrInfer(context: SearchContext, psi: LuaPsiTypeGuessable, infer: () -> ITy?): ITy? {
+        val file = psi.containingFile ?: return infer()
+        val tracker = InferDependencyTracker.getInstance(file.project)
+        val cache = getFileCache(file)
+        val key = CacheKey(psi, context.index, context.supportsMultipleResults, context.abstractGenericScopeNames, context.element)
+
+        cache[key]?.let {
+            if (tracker.isValid(it.dependencies)) {
+                InferDependencies.record(it.dependencies.dependencies.asList())
+                return it.ty
+            }
+
+            cache.remove(key, it)
+        }
+
+        val stackStamp = RecursionManager.markStack()
+        val guardHits = recursionGuardHits
+        val (ty, dependencies) = InferDependencies.track(infer)
+
+        // Results computed whilst recursion was being prevented may be incomplete, and must not outlive this request.
+        if (ty != null && stackStamp.mayCacheNow() && guardHits == recursionGuardHits) {
+            ProgressManager.checkCanceled()
+            cache[key] = CacheEntry(ty, tracker.snapshot(dependencies))
+        }
+
+        return ty
+    }
+}
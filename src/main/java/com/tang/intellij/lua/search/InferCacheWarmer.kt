@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.lua.search
+
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.application.ReadAction
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.project.DumbService
+import com.intellij.openapi.project.Project
+import com.intellij.psi.stubs.StubIndex
+import com.intellij.util.concurrency.AppExecutorUtil
+import com.tang.intellij.lua.Constants
+import com.tang.intellij.lua.psi.resolveRequireFile
+import com.tang.intellij.lua.stubs.index.LuaAliasIndex
+import com.tang.intellij.lua.stubs.index.LuaClassIndex
+import com.tang.intellij.lua.stubs.index.LuaStringArgIndex
+import com.tang.intellij.lua.stubs.index.StubKeys
+import com.tang.intellij.lua.ty.TyAliasSubstitutor
+
+/**
+ * Pre-warms the inference caches ([InferCache] and [ClassMemberCache]) once indexing completes, so that the first file
+ * opened (e.g. after a branch switch) doesn't pay for cold inference of the project's most used classes (and the types of
+ * their members), required modules and aliases.
+ *
+ * Warming is a low priority non-blocking read action, which is cancelled (and restarted) whenever a write action is
+ * requested, so it always yields to the user. Results already cached survive a restart, so each attempt progresses.
+ */
+class InferCacheWarmer(private val project: Project) : Disposable {
+    companion object {
+        private const val MAX_CLASSES = 500
+        private const val MAX_MODULES = 200
+        private const val MAX_ALIASES = 500
+
+        fun getInstance(project: Project): InferCacheWarmer {
+            return project.getService(InferCacheWarmer::class.java)
+        }
+    }
+
+    class Listener(private val project: Project) : DumbService.DumbModeListener {
+        override fun exitDumbMode() {
+            getInstance(project).schedule()
+        }
+    }
+
+    private val executor = AppExecutorUtil.createBoundedApplicationPoolExecutor("Lua Inference Cache Warmer", 1)
+
+    override fun dispose() {}
+
+    fun schedule() {
+        ReadAction.nonBlocking<Unit> { warm() }
+            .inSmartMode(project)
+            .expireWith(this)
+            .coalesceBy(this)
+            .submit(executor)
+    }
+
+    private fun warm() {
+        val context = ProjectSearchContext(project)
+
+        if (!context.isProjectCacheable) {
+            return
+        }
+
+        // Installed as the thread's current context, so that searches that look up the current context share its state.
+        SearchContext.withContext(context) {
+            warmClasses(context)
+            warmModules(context)
+            warmAliases(context)
+        }
+    }
+
+    // Classes are ranked by the number of files declaring classes that extend them, which is known from the index without
+    // loading any stubs.
+    private fun warmClasses(context: SearchContext) {
+        val references = HashMap<String, Int>()
+
+        LuaClassIndex.processKeys(project) { className ->
+            ProgressManager.checkCanceled()
+            references[className] = 0
+            true
+        }
+
+        StubIndex.getInstance().processAllKeys(StubKeys.SUPER_CLASS, project) { superClassName ->
+            ProgressManager.checkCanceled()
+
+            if (references.containsKey(superClassName)) {
+                var count = 0
+                StubIndex.getInstance().getContainingFiles(StubKeys.SUPER_CLASS, superClassName, project, context.scope).forEach { _ ->
+                    count++
+                }
+                references[superClassName] = count
+            }
+
+            true
+        }
+
+        mostReferenced(references, MAX_CLASSES).forEach { className ->
+            LuaClassIndex.find(context, className)?.type?.processMembers(context, true) { _, member ->
+                ProgressManager.checkCanceled()
+                member.guessType(context)
+                true
+            }
+        }
+    }
+
+    // Modules are ranked by the number of times they're required.
+    private fun warmModules(context: SearchContext) {
+        val references = LuaStringArgIndex.getArgCounts(project, Constants.WORD_REQUIRE, 0, true)
+
+        mostReferenced(references, MAX_MODULES).forEach { moduleName ->
+            resolveRequireFile(moduleName, project)?.let {
+                SearchContext.infer(context, it)
+            }
+        }
+    }
+
+    private fun warmAliases(context: SearchContext) {
+        val aliasNames = mutableListOf<String>()
+
+        StubIndex.getInstance().processAllKeys(StubKeys.ALIAS, project) { aliasName ->
+            ProgressManager.checkCanceled()
+            aliasNames.add(aliasName)
+            aliasNames.size < MAX_ALIASES
+        }
+
+        aliasNames.forEach { aliasName ->
+            ProgressManager.checkCanceled()
+            LuaAliasIndex.find(context, aliasName)?.type?.let {
+                TyAliasSubstitutor.substitute(context, it)
+            }
+        }
+    }
+
+    private fun mostReferenced(references: Map<String, Int>, limit: Int): List<String> {
+        return references.entries.sortedByDescending { it.value }.take(limit).map { it.key }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.lua.search
+
+import com.intellij.psi.PsiFile
+import com.intellij.psi.stubs.StubIndexKey
+import com.tang.intellij.lua.psi.getFileIdentifier
+
+/**
+ * Records the index keys (and files) that inference results are derived from, so that cached results need only be
+ * invalidated when something they actually depend upon changes. See [InferDependencyTracker].
+ */
+object InferDependencies {
+    private val recorders = ThreadLocal.withInitial { ArrayList<MutableSet<String>>() }
+
+    fun indexKey(indexKey: StubIndexKey<*, *>, key: String): String {
+        return "${indexKey.name}:$key"
+    }
+
+    fun fileKey(file: PsiFile): String {
+        return "file:${file.getFileIdentifier()}"
+    }
+
+    fun record(dependency: String) {
+        val stack = recorders.get()
+
+        if (stack.isNotEmpty()) {
+            stack.last().add(dependency)
+        }
+    }
+
+    fun record(indexKey: StubIndexKey<*, *>, key: String) {
+        if (recorders.get().isNotEmpty()) {
+            record(indexKey(indexKey, key))
+        }
+    }
+
+    fun record(dependencies: Collection<String>) {
+        val stack = recorders.get()
+
+        if (stack.isNotEmpty()) {
+            stack.last().addAll(dependencies)
+        }
+    }
+
+    /**
+     * Performs [action], returning its result along with the dependencies recorded whilst it ran. Dependencies are
+     * also propagated to any enclosing recording.
+     */
+    fun <T> track(action: () -> T): Pair<T, Set<String>> {
+        val stack = recorders.get()
+        val dependencies = HashSet<String>()
+        stack.add(dependencies)
+
+        try {
+            return Pair(action(), dependencies)
+        } finally {
+            stack.removeAt(stack.lastIndex)
+
+            if (stack.isNotEmpty()) {
+                stack.last().addAll(dependencies)
+            }
+        }
+    }
+}
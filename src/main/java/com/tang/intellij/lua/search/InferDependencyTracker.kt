@@ -0,0 +1,401 @@
+/*
+ * Copyright (c) 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.lua.search
+
+import com.intellij.ProjectTopics
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.application.ReadAction
+import com.intellij.openapi.fileEditor.FileEditorManager
+import com.intellij.openapi.fileEditor.FileEditorManagerListener
+import com.intellij.openapi.fileTypes.FileTypeRegistry
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.project.DumbService
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.roots.ModuleRootEvent
+import com.intellij.openapi.roots.ModuleRootListener
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.vfs.VirtualFileManager
+import com.intellij.openapi.vfs.newvfs.BulkFileListener
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent
+import com.intellij.psi.PsiElement
+import com.intellij.psi.PsiManager
+import com.intellij.psi.PsiTreeChangeAdapter
+import com.intellij.psi.PsiTreeChangeEvent
+import com.intellij.psi.stubs.IStubElementType
+import com.intellij.psi.stubs.IndexSink
+import com.intellij.psi.stubs.StubElement
+import com.intellij.psi.stubs.StubIndexKey
+import com.intellij.openapi.util.Disposer
+import com.intellij.testFramework.LightVirtualFile
+import com.intellij.util.PathUtil
+import com.intellij.util.concurrency.AppExecutorUtil
+import com.intellij.util.containers.ContainerUtil
+import com.tang.intellij.lua.lang.LuaFileType
+import com.tang.intellij.lua.project.LuaSourceRootListener
+import com.tang.intellij.lua.project.LuaSourceRootManager
+import com.tang.intellij.lua.psi.LuaLocalDefStat
+import com.tang.intellij.lua.psi.LuaLocalFuncDefStat
+import com.tang.intellij.lua.psi.LuaPsiFile
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Tracks modifications at the granularity of index keys, so cached inference results can be invalidated only when the
+ * keys they were derived from (see [InferDependencies]) have changed.
+ *
+ * Each Lua file that's edited is diffed against a baseline of the index keys it contributes, along with a 64-bit hash
+ * of the source that contributes to each key. Baselines of files opened in an editor are computed in the background
+ * when they're opened. A file edited without a baseline (e.g. by a refactoring) only has its text retained when first
+ * edited, from which its baseline is computed when it's diffed. Edited files are diffed lazily, the next time a cached
+ * result is validated, and only keys whose contributing source changed are stamped. Changes we cannot diff, as their
+ * previous content isn't available (files created, moved or deleted, external changes, root changes, indexing), stamp
+ * everything.
+ */
+class InferDependencyTracker(private val project: Project) : Disposable {
+    companion object {
+        // Top-level locals may be referenced by any statement in the file, so changes to them invalidate every key.
+        private const val FILE_LOCALS_KEY = "file_locals"
+
+        // 64-bit FNV-1a
+        private const val HASH_OFFSET = -3750763034362895579L
+        private const val HASH_PRIME = 1099511628211L
+
+        fun getInstance(project: Project): InferDependencyTracker {
+            return project.getService(InferDependencyTracker::class.java)
+        }
+    }
+
+    class Snapshot(val epoch: Long, val dependencies: Array<String>, val stamps: LongArray)
+
+    private val stampCounter = AtomicLong()
+    private val epoch = AtomicLong()
+    private val stamps = ConcurrentHashMap<String, Long>()
+    private val fileKeyHashes = ConcurrentHashMap<String, Map<String, Long>>()
+    // Text of files edited without a baseline, as it was before their first edit.
+    private val baselineTexts = ConcurrentHashMap<String, String>()
+    private val dirtyFiles = ConcurrentHashMap.newKeySet<LuaPsiFile>()
+    private val stampListeners = ContainerUtil.createLockFreeCopyOnWriteList<(String) -> Unit>()
+
+    private val executor = AppExecutorUtil.createBoundedApplicationPoolExecutor("Lua Inference Dependency Baselines", 1)
+
+    /**
+     * Incremented whenever everything is invalidated.
+     */
+    val modificationEpoch: Long
+        get() = epoch.get()
+
+    init {
+        PsiManager.getInstance(project).addPsiTreeChangeListener(object : PsiTreeChangeAdapter() {
+            override fun beforeChildAddition(event: PsiTreeChangeEvent) = beforeChange(event)
+            override fun beforeChildRemoval(event: PsiTreeChangeEvent) = beforeChange(event)
+            override fun beforeChildReplacement(event: PsiTreeChangeEvent) = beforeChange(event)
+            override fun beforeChildMovement(event: PsiTreeChangeEvent) = beforeChange(event)
+            override fun beforeChildrenChange(event: PsiTreeChangeEvent) = beforeChange(event)
+            override fun beforePropertyChange(event: PsiTreeChangeEvent) = invalidateAll()
+        }, this)
+
+        val connection = project.messageBus.connect(this)
+
+        connection.subscribe(VirtualFileManager.VFS_CHANGES, object : BulkFileListener {
+            override fun after(events: MutableList<out VFileEvent>) {
+                // Edits made in the IDE are tracked via PSI, everything else (external changes, VCS etc.) is not diffed.
+                val external = events.any {
+                    !it.isFromSave && isLuaFileOrDirectory(it)
+                }
+
+                if (external) {
+                    invalidateAll()
+                }
+            }
+        })
+
+        connection.subscribe(DumbService.DUMB_MODE, object : DumbService.DumbModeListener {
+            override fun exitDumbMode() = invalidateAll()
+        })
+
+        connection.subscribe(ProjectTopics.PROJECT_ROOTS, object : ModuleRootListener {
+            override fun rootsChanged(event: ModuleRootEvent) = invalidateAll()
+        })
+
+        connection.subscribe(LuaSourceRootManager.TOPIC, object : LuaSourceRootListener {
+            override fun onChanged() = invalidateAll()
+        })
+
+        connection.subscribe(FileEditorManagerListener.FILE_EDITOR_MANAGER, object : FileEditorManagerListener {
+            override fun fileOpened(source: FileEditorManager, file: VirtualFile) = scheduleBaselines(listOf(file))
+        })
+    }
+
+    override fun dispose() {
+        fileKeyHashes.clear()
+        baselineTexts.clear()
+        dirtyFiles.clear()
+    }
+
+    fun invalidateAll() {
+        epoch.incrementAndGet()
+        fileKeyHashes.clear()
+        baselineTexts.clear()
+        dirtyFiles.clear()
+
+        if (!project.isDisposed) {
+            scheduleBaselines(FileEditorManager.getInstance(project).openFiles.asList())
+        }
+    }
+
+    /**
+     * Registers [listener] to be notified of each dependency that's stamped as edited files are diffed. Listeners are
+     * not notified when everything is invalidated, which is instead indicated by a change in [modificationEpoch].
+     */
+    fun addStampListener(parentDisposable: Disposable, listener: (dependency: String) -> Unit) {
+        stampListeners.add(listener)
+        Disposer.register(parentDisposable) { stampListeners.remove(listener) }
+    }
+
+    fun snapshot(dependencies: Set<String>): Snapshot {
+        flush()
+
+        val dependencyArray = dependencies.toTypedArray()
+        val dependencyStamps = LongArray(dependencyArray.size) { stamps[dependencyArray[it]] ?: 0L }
+        return Snapshot(epoch.get(), dependencyArray, dependencyStamps)
+    }
+
+    fun isValid(snapshot: Snapshot): Boolean {
+        flush()
+
+        if (snapshot.epoch != epoch.get()) {
+            return false
+        }
+
+        val dependencies = snapshot.dependencies
+
+        for (i in dependencies.indices) {
+            if ((stamps[dependencies[i]] ?: 0L) != snapshot.stamps[i]) {
+                return false
+            }
+        }
+
+        return true
+    }
+
+    private fun isLuaFileOrDirectory(event: VFileEvent): Boolean {
+        val file = event.file
+
+        return file == null
+                || file.isDirectory
+                || FileTypeRegistry.getInstance().getFileTypeByFileName(PathUtil.getFileName(event.path)) == LuaFileType.INSTANCE
+    }
+
+    private fun beforeChange(event: PsiTreeChangeEvent) {
+        val file = event.file
+
+        if (file == null) {
+            // Directory level changes i.e. files being created, moved or deleted.
+            invalidateAll()
+        } else if (file is LuaPsiFile && file.isPhysical) {
+            val identifier = file.identifier
+
+            // Only the text is retained here, rather than building stubs whilst the PSI is being changed.
+            if (!fileKeyHashes.containsKey(identifier) && !baselineTexts.containsKey(identifier)) {
+                baselineTexts[identifier] = if (file.tooLarger) "" else file.text
+            }
+
+            dirtyFiles.add(file)
+        }
+    }
+
+    // Computes the baselines of files (i.e. those opened in an editor) that are likely to be edited, before they are.
+    private fun scheduleBaselines(files: List<VirtualFile>) {
+        val luaFiles = files.filter { FileTypeRegistry.getInstance().isFileOfType(it, LuaFileType.INSTANCE) }
+
+        if (luaFiles.isEmpty()) {
+            return
+        }
+
+        ReadAction.nonBlocking<Unit> {
+            luaFiles.forEach { virtualFile ->
+                ProgressManager.checkCanceled()
+
+                val file = if (virtualFile.isValid) PsiManager.getInstance(project).findFile(virtualFile) as? LuaPsiFile else null
+
+                if (file != null && !fileKeyHashes.containsKey(file.identifier)) {
+                    val hashes = computeKeyHashes(file, file.tooLarger)
+
+                    // Within the read action the file can't have changed since its hashes were computed, but it may
+                    // have been edited (or diffed) before, in which case it already has a baseline.
+                    synchronized(this) {
+                        if (!dirtyFiles.contains(file) && !baselineTexts.containsKey(file.identifier)) {
+                            fileKeyHashes.putIfAbsent(file.identifier, hashes)
+                        }
+                    }
+                }
+            }
+        }.expireWith(this).submit(executor)
+    }
+
+    private fun getBaseline(file: LuaPsiFile): Map<String, Long>? {
+        val identifier = file.identifier
+
+        fileKeyHashes[identifier]?.let {
+            return it
+        }
+
+        val text = baselineTexts.remove(identifier) ?: return null
+
+        if (text.isEmpty()) {
+            return emptyMap()
+        }
+
+        // Parsed as a copy of the file (with the same identifier), so that its keys are named as the file's are.
+        val copy = LightVirtualFile(file.name, LuaFileType.INSTANCE, text)
+        copy.originalFile = file.viewProvider.virtualFile
+
+        val copyFile = PsiManager.getInstance(project).findFile(copy) as? LuaPsiFile ?: return null
+        return computeKeyHashes(copyFile, false)
+    }
+
+    /**
+     * Diffs edited files, stamping the dependencies whose contributing source has changed.
+     */
+    fun flush() {
+        if (dirtyFiles.isEmpty()) {
+            return
+        }
+
+        synchronized(this) {
+            val files = dirtyFiles.toList()
+            dirtyFiles.removeAll(files)
+
+            files.forEach { file ->
+                val identifier = file.identifier
+                val oldHashes = getBaseline(file)
+
+                if (oldHashes == null) {
+                    invalidateAll()
+                    return
+                }
+
+                val newHashes = if (file.isValid) computeKeyHashes(file, file.tooLarger) else emptyMap()
+
+                stamp(InferDependencies.fileKey(file))
+
+                if (oldHashes[FILE_LOCALS_KEY] != newHashes[FILE_LOCALS_KEY]) {
+                    oldHashes.keys.forEach { stamp(it) }
+                    newHashes.keys.forEach { stamp(it) }
+                } else {
+                    oldHashes.forEach { (key, hash) ->
+                        if (newHashes[key] != hash) {
+                            stamp(key)
+                        }
+                    }
+
+                    newHashes.keys.forEach { key ->
+                        if (!oldHashes.containsKey(key)) {
+                            stamp(key)
+                        }
+                    }
+                }
+
+                fileKeyHashes[identifier] = newHashes
+            }
+        }
+    }
+
+    /**
+     * Marks [dependency] as modified, invalidating results that depend upon it. Stamp listeners may use this to stamp
+     * dependencies they derive from index keys.
+     */
+    fun stamp(dependency: String) {
+        stamps[dependency] = stampCounter.incrementAndGet()
+        stampListeners.forEach { it(dependency) }
+    }
+
+    private fun computeKeyHashes(file: LuaPsiFile, tooLarge: Boolean): Map<String, Long> {
+        val hashes = HashMap<String, Long>()
+
+        if (tooLarge) {
+            return hashes
+        }
+
+        var localsHash = HASH_OFFSET
+
+        file.children.forEach {
+            if (it is LuaLocalDefStat || it is LuaLocalFuncDefStat) {
+                localsHash = combineHash(localsHash, hashSource(it.node.chars))
+            }
+        }
+
+        hashes[FILE_LOCALS_KEY] = localsHash
+
+        var sourceHash = 0L
+
+        // Stubs share their top-level statement with their siblings (e.g. fields of a large table), so each statement is
+        // only hashed once.
+        val statementHashes = HashMap<PsiElement, Long>()
+
+        val sink = object : IndexSink {
+            override fun <Psi : PsiElement, K> occurrence(indexKey: StubIndexKey<K, Psi>, value: K) {
+                val dependency = InferDependencies.indexKey(indexKey, value.toString())
+                hashes[dependency] = combineHash(hashes[dependency] ?: HASH_OFFSET, sourceHash)
+            }
+        }
+
+        file.calcStubTree().plainList.forEach { stub ->
+            @Suppress("UNCHECKED_CAST")
+            val stubType = stub.stubType as? IStubElementType<StubElement<*>, *>
+
+            if (stubType != null) {
+                val statement = topLevelSource(stub.psi)
+                sourceHash = statementHashes.getOrPut(statement) {
+                    hashSource(statement.node.chars)
+                }
+                stubType.indexStub(stub, sink)
+            }
+        }
+
+        return hashes
+    }
+
+    private fun hashSource(chars: CharSequence): Long {
+        var hash = HASH_OFFSET
+
+        for (i in chars.indices) {
+            hash = (hash xor chars[i].code.toLong()) * HASH_PRIME
+        }
+
+        return hash
+    }
+
+    private fun combineHash(hash: Long, value: Long): Long {
+        return (hash xor value) * HASH_PRIME
+    }
+
+    // Member types may be inferred from anywhere in their enclosing top-level statement e.g. a method's body.
+    private fun topLevelSource(psi: PsiElement): PsiElement {
+        var element = psi
+
+        while (true) {
+            val parent = element.parent
+
+            if (parent == null || parent is LuaPsiFile) {
+                return element
+            }
+
+            element = parent
+        }
+    }
+}
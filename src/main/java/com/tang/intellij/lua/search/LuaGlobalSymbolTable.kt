@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.lua.search
+
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.application.ReadAction
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.psi.stubs.StubIndex
+import com.intellij.util.Processor
+import com.intellij.util.concurrency.AppExecutorUtil
+import com.tang.intellij.lua.Constants
+import com.tang.intellij.lua.psi.LuaPsiTypeMember
+import com.tang.intellij.lua.psi.LuaTypeMethod
+import com.tang.intellij.lua.stubs.index.LuaClassMemberIndex
+import com.tang.intellij.lua.stubs.index.StubKeys
+import com.tang.intellij.lua.ty.ITy
+import com.tang.intellij.lua.ty.Primitives
+import com.tang.intellij.lua.ty.TyUnion
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Members of _G (globals), which would otherwise be resolved (and enumerated) by searching the class member index.
+ *
+ * Global names are kept in a [WordPrefixIndex], which is built from the class member index in the background once per
+ * [InferDependencyTracker.modificationEpoch], and then maintained incrementally as the tracker stamps the member keys
+ * of edited files. Until it's built the table isn't [isReady], and callers search the class member index as before.
+ * Symbols are built lazily when first requested. Callers are responsible for only consulting the table with a
+ * [SearchContext.isProjectCacheable] context.
+ */
+class LuaGlobalSymbolTable(private val project: Project) : Disposable {
+    companion object {
+        private const val KEY_PREFIX = "${Constants.WORD_G}*"
+
+        private val MEMBER_DEPENDENCY_PREFIX = InferDependencies.indexKey(StubKeys.CLASS_MEMBER, KEY_PREFIX)
+
+        // Stamped whenever a member of _G may have been added or removed, i.e. when the set of global names may change.
+        private const val NAMES_DEPENDENCY = "global_names"
+
+        fun getInstance(project: Project): LuaGlobalSymbolTable {
+            return project.getService(LuaGlobalSymbolTable::class.java)
+        }
+    }
+
+    enum class Kind {
+        Function,
+        Variable
+    }
+
+    class GlobalSymbol(val name: String, val members: Collection<LuaPsiTypeMember>) {
+        val kind: Kind = if (members.any { it is LuaTypeMethod<*> }) Kind.Function else Kind.Variable
+
+        val files: Collection<VirtualFile>
+            get() = members.mapNotNullTo(LinkedHashSet()) { it.containingFile?.virtualFile }
+
+        @Volatile
+        internal var declaredType: Pair<ITy, InferDependencyTracker.Snapshot>? = null
+    }
+
+    private val lock = Any()
+
+    private val names = WordPrefixIndex<String>()
+
+    @Volatile
+    private var epoch = -1L
+
+    // The epoch for which a rebuild was last scheduled.
+    private val scheduledEpoch = AtomicLong(-1L)
+
+    private val executor = AppExecutorUtil.createBoundedApplicationPoolExecutor("Lua Global Symbol Table", 1)
+
+    // Names whose member keys were stamped, and must be looked up in the index again.
+    private val pendingNames = ConcurrentHashMap.newKeySet<String>()
+
+    private val symbols = ConcurrentHashMap<String, GlobalSymbol>()
+
+    init {
+        val tracker = InferDependencyTracker.getInstance(project)
+
+        tracker.addStampListener(this) { dependency ->
+            if (dependency.startsWith(MEMBER_DEPENDENCY_PREFIX)) {
+                val name = dependency.substring(MEMBER_DEPENDENCY_PREFIX.length)
+                symbols.remove(name)
+                pendingNames.add(name)
+                tracker.stamp(NAMES_DEPENDENCY)
+            }
+        }
+    }
+
+    override fun dispose() {
+        synchronized(lock) {
+            names.clear()
+        }
+
+        symbols.clear()
+        pendingNames.clear()
+    }
+
+    /**
+     * Whether the table has been built for the current [InferDependencyTracker.modificationEpoch]. If not, a rebuild is
+     * scheduled in the background, and callers should search the class member index instead.
+     */
+    val isReady: Boolean
+        get() {
+            val tracker = InferDependencyTracker.getInstance(project)
+            tracker.flush()
+
+            val currentEpoch = tracker.modificationEpoch
+
+            if (epoch == currentEpoch) {
+                return true
+            }
+
+            if (scheduledEpoch.getAndSet(currentEpoch) != currentEpoch) {
+                ReadAction.nonBlocking<Unit> { rebuild() }
+                    .inSmartMode(project)
+                    .expireWith(this)
+                    .coalesceBy(this)
+                    .submit(executor)
+            }
+
+            return false
+        }
+
+    /**
+     * The global named [name], or null if there's no such global.
+     */
+    fun find(context: SearchContext, name: String): GlobalSymbol? {
+        InferDependencies.record(StubKeys.CLASS_MEMBER, "$KEY_PREFIX$name")
+        update(context)
+
+        val isGlobal = synchronized(lock) {
+            names.contains(name, name)
+        }
+
+        return if (isGlobal) getSymbol(context, name) else null
+    }
+
+    /**
+     * Processes the names of globals that match [prefix] (see [WordPrefixIndex.matches]). Callers are expected to filter
+     * names further e.g. with a prefix matcher.
+     */
+    fun processNames(context: SearchContext, prefix: String, processor: Processor<String>): Boolean {
+        InferDependencies.record(NAMES_DEPENDENCY)
+        update(context)
+
+        // Copied so that processing (which may well search indices) doesn't occur whilst locked.
+        val candidates = mutableListOf<String>()
+
+        synchronized(lock) {
+            names.process(prefix) {
+                candidates.add(it)
+            }
+        }
+
+        return candidates.all { processor.process(it) }
+    }
+
+    fun getSymbol(context: SearchContext, name: String): GlobalSymbol? {
+        symbols[name]?.let { symbol ->
+            if (symbol.members.all { it.isValid }) {
+                return symbol
+            }
+
+            symbols.remove(name, symbol)
+        }
+
+        val members = LuaClassMemberIndex.getMembers(context, "$KEY_PREFIX$name")
+
+        if (members.isEmpty()) {
+            return null
+        }
+
+        val symbol = GlobalSymbol(name, members)
+        return symbols.putIfAbsent(name, symbol) ?: symbol
+    }
+
+    /**
+     * The union of the types of each of the global's declarations.
+     */
+    fun getDeclaredType(context: SearchContext, symbol: GlobalSymbol): ITy {
+        val tracker = InferDependencyTracker.getInstance(project)
+
+        symbol.declaredType?.let { (ty, dependencies) ->
+            if (tracker.isValid(dependencies)) {
+                InferDependencies.record(dependencies.dependencies.asList())
+                return ty
+            }
+        }
+
+        val (ty, dependencies) = InferDependencies.track {
+            TyUnion.union(context, symbol.members.map { member ->
+                ProgressManager.checkCanceled()
+                member.guessType(context) ?: Primitives.UNKNOWN
+            })
+        }
+
+        symbol.declaredType = Pair(ty, tracker.snapshot(dependencies))
+        return ty
+    }
+
+    // Applies names stamped since the table was last updated. Whether each is still a global is known from the files
+    // containing its key, without loading any stubs.
+    private fun update(context: SearchContext) {
+        InferDependencyTracker.getInstance(project).flush()
+
+        if (pendingNames.isEmpty()) {
+            return
+        }
+
+        val updated = pendingNames.toList()
+        pendingNames.removeAll(updated)
+
+        val exists = try {
+            updated.associateWith {
+                ProgressManager.checkCanceled()
+                StubIndex.getInstance().getContainingFiles(StubKeys.CLASS_MEMBER, "$KEY_PREFIX$it", project, context.scope).hasNext()
+            }
+        } catch (e: Throwable) {
+            // i.e. Cancelled, the names will be looked up again next time.
+            pendingNames.addAll(updated)
+            throw e
+        }
+
+        synchronized(lock) {
+            exists.forEach { (name, isGlobal) ->
+                if (isGlobal) {
+                    names.add(name, name)
+                } else {
+                    names.remove(name, name)
+                }
+            }
+        }
+    }
+
+    private fun rebuild() {
+        // Read first, so that if the epoch changes whilst the keys are collected, the table isn't considered ready.
+        val newEpoch = InferDependencyTracker.getInstance(project).modificationEpoch
+        val keys = mutableListOf<String>()
+
+        StubIndex.getInstance().processAllKeys(StubKeys.CLASS_MEMBER, project) { key ->
+            ProgressManager.checkCanceled()
+
+            // Excludes non-literal indexers i.e. "_G*[string]".
+            if (key.startsWith(KEY_PREFIX) && key.length > KEY_PREFIX.length && key[KEY_PREFIX.length] != '[') {
+                keys.add(key.substring(KEY_PREFIX.length))
+            }
+
+            true
+        }
+
+        synchronized(lock) {
+            names.clear()
+            keys.forEach { names.add(it, it) }
+            symbols.clear()
+            epoch = newEpoch
+        }
+    }
+}
@@ -31,9 +31,15 @@ class ProjectSearchContext : SearchContext {
         this.project = sourceContext.project
     }
 
+    private constructor(sourceContext: ProjectSearchContext, fork: Boolean): super(sourceContext, fork) {
+        this.project = sourceContext.project
+    }
+
     override val element: PsiElement? = null
 
     override val identifier: String = "project"
 
     override fun getProjectContext() = this
+
+    override fun fork() = ProjectSearchContext(this, true)
 }
@@ -21,7 +21,17 @@ import com.intellij.psi.PsiElement
 import com.tang.intellij.lua.psi.getFileIdentifier
 
 
-class PsiSearchContext(override val element: PsiElement) : SearchContext() {
+class PsiSearchContext : SearchContext {
+    override val element: PsiElement
+
+    constructor(element: PsiElement) : super() {
+        this.element = element
+    }
+
+    private constructor(sourceContext: PsiSearchContext) : super(sourceContext, true) {
+        this.element = sourceContext.element
+    }
+
     override val project: Project by lazy {
         element.project
     }
@@ -31,4 +41,6 @@ class PsiSearchContext(override val element: PsiElement) : SearchContext() {
             val id = element.containingFile.getFileIdentifier()
             return "$id@(${element.node.startOffset})"
         }
+
+    override fun fork() = PsiSearchContext(this)
 }
@@ -23,12 +23,24 @@ import com.tang.intellij.lua.psi.LuaNameExpr
 
 private val globalSearchGuardSet = ThreadLocal.withInitial { mutableSetOf<String>() }
 private val recursionGuardSets = ThreadLocal.withInitial { mutableMapOf<String, MutableSet<PsiElement>>() }
+private val guardHitCount = ThreadLocal.withInitial { intArrayOf(0) }
+
+/**
+ * Number of times (on the current thread) a guard has prevented recursion. Results computed whilst a guard was hit may
+ * be incomplete, so callers compare counts before and after a computation to determine whether the result may be cached.
+ */
+val recursionGuardHits: Int get() = guardHitCount.get()[0]
+
+private fun recordGuardHit() {
+    guardHitCount.get()[0]++
+}
 
 fun <T>withSearchGuard(psi: LuaNameExpr, action: () -> T?): T? {
     val name = psi.name
     val guardSet = globalSearchGuardSet.get()
 
     if (!guardSet.add(name)) {
+        recordGuardHit()
         return null
     }
 
@@ -48,6 +60,7 @@ fun <T>withRecursionGuard(name: String, psi: PsiElement, dumb: Boolean = false,
     }
 
     if (!guardSet.add(psi)) {
+        recordGuardHit()
         return null
     }
 
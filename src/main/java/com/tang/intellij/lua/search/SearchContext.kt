@@ -23,15 +23,28 @@ import com.intellij.psi.search.GlobalSearchScope
 import com.intellij.psi.search.ProjectAndLibrariesScope
 import com.tang.intellij.lua.ext.ILuaTypeInfer
 import com.tang.intellij.lua.psi.LuaPsiTypeGuessable
+import com.tang.intellij.lua.psi.LuaScopedTypeTree
 import com.tang.intellij.lua.psi.ScopedTypeSubstitutor
 import com.tang.intellij.lua.ty.ITy
 import java.util.*
 
 /**
+ * The state of a search is an immutable value held by the context. Changing it (e.g. [withIndex]) replaces it for the
+ * duration of the action, so reading it is just a field access. A context is therefore confined to the thread searching
+ * with it, and [fork] creates a separate context, with the current state, to be searched with on another thread.
 
  * Created by tangzx on 2017/1/14.
  */
-abstract class SearchContext() {
+abstract class SearchContext private constructor(private var state: State) {
+    constructor() : this(State(contextStack.get().lastOrNull()?.isDumb ?: false))
+
+    /**
+     * Copies [sourceContext]'s current state. Abstract generic scope names are specific to the source context's element,
+     * so are only retained by a [fork] (of the same element).
+     */
+    protected constructor(sourceContext: SearchContext, fork: Boolean = false)
+            : this(if (fork) sourceContext.state else sourceContext.state.copy(abstractGenericScopeNames = null))
+
     abstract val project: Project
     abstract val element: PsiElement?
     abstract val identifier: String
@@ -40,46 +53,59 @@ abstract class SearchContext() {
         return ProjectSearchContext(this)
     }
 
-    val index: Int get() = myIndex // Multiple results index
-    val supportsMultipleResults: Boolean get() = myMultipleResults
+    /**
+     * Returns a new context with this context's current state, which can be passed to, and searched with on, another
+     * thread.
+     */
+    abstract fun fork(): SearchContext
+
+    private data class State(
+        val dumb: Boolean,
+        val index: Int = 0, // Multiple results index
+        val multipleResults: Boolean = false,
+        val scope: GlobalSearchScope? = null,
+        val abstractGenericScopeNames: Set<String>? = null
+    )
+
+    // Whether this context is on the (confining) thread's context stack.
+    private var inStack = false
+
+    private val defaultScope by lazy(LazyThreadSafetyMode.PUBLICATION) {
+        ProjectAndLibrariesScope(project)
+    }
+
+    /**
+     * Identifies the scope (and position within it) of [element] in its file's [LuaScopedTypeTree], relative to which
+     * type names are resolved, or null if [element] is not within a scope. Looked up once per context, when first used.
+     */
+    val typeScopeKey: String? by lazy(LazyThreadSafetyMode.PUBLICATION) {
+        element?.let { LuaScopedTypeTree.get(it.containingFile)?.findScope(it) }?.let { foundScope ->
+            foundScope.psiScopedTypeIndex?.let { "${foundScope.scope.name}#$it" } ?: foundScope.scope.name
+        }
+    }
+
+    private val myInferCache = HashMap<LuaPsiTypeGuessable, ITy>()
 
-    private var myDumb = contextStack.get().lastOrNull()?.isDumb ?: false
-    private var myIndex = 0
-    private var myMultipleResults = false
-    private var myInStack = false
-    private var myScope: GlobalSearchScope? = null
-    private var myAbstractGenericScopeNames: Set<String>? = null
+    val index: Int get() = state.index // Multiple results index
+    val supportsMultipleResults: Boolean get() = state.multipleResults
 
-    private val myInferCache = mutableMapOf<LuaPsiTypeGuessable, ITy>()
+    private fun <T> withState(newState: State, action: () -> T): T {
+        val savedState = state
+        state = newState
 
-    protected constructor(sourceContext: SearchContext) : this() {
-        myDumb = sourceContext.myDumb
-        myIndex = sourceContext.myIndex
-        myMultipleResults = sourceContext.myMultipleResults
-        myInStack = sourceContext.myInStack
-        myScope = sourceContext.myScope
+        try {
+            return action()
+        } finally {
+            state = savedState
+        }
     }
 
     fun <T> withIndex(index: Int, supportMultipleResults: Boolean = false, action: () -> T): T {
-        val savedIndex = this.index
-        val savedMultipleResults = this.supportsMultipleResults
-        myIndex = index
-        myMultipleResults = supportMultipleResults
-        val ret = action()
-        myIndex = savedIndex
-        myMultipleResults = savedMultipleResults
-        return ret
+        return withState(state.copy(index = index, multipleResults = supportMultipleResults), action)
     }
 
     fun <T> withMultipleResults(action: () -> T): T {
-        val savedIndex = this.index
-        val savedMultipleResults = this.supportsMultipleResults
-        myIndex = -1
-        myMultipleResults = true
-        val ret = action()
-        myIndex = savedIndex
-        myMultipleResults = savedMultipleResults
-        return ret
+        return withState(state.copy(index = -1, multipleResults = true), action)
     }
 
     fun <T> withListEntry(last: Boolean, action: () -> T): T {
@@ -93,41 +119,26 @@ abstract class SearchContext() {
     val scope get(): GlobalSearchScope {
         if (isDumb)
             return GlobalSearchScope.EMPTY_SCOPE
-        if (myScope == null) {
-            myScope = ProjectAndLibrariesScope(project)
-        }
-        return myScope!!
+        return state.scope ?: defaultScope
     }
 
     val abstractGenericScopeNames get(): Set<String>? {
-        return myAbstractGenericScopeNames
+        return state.abstractGenericScopeNames
     }
 
     val isDumb: Boolean
-        get() = myDumb || DumbService.isDumb(project)
+        get() = state.dumb || DumbService.isDumb(project)
 
     fun <T> withScope(scope: GlobalSearchScope, action: () -> T): T {
-        val oriScope = myScope
-        myScope = scope
-        val ret = action()
-        myScope = oriScope
-        return ret
+        return withState(state.copy(scope = scope), action)
     }
 
     fun <T> withAbstractGenericScopeNames(scopeNames: Iterable<String>, action: () -> T): T {
-        val oldScopeNames = myAbstractGenericScopeNames
-        myAbstractGenericScopeNames = scopeNames.toSet()
-        val ret = action()
-        myAbstractGenericScopeNames = oldScopeNames
-        return ret
+        return withState(state.copy(abstractGenericScopeNames = scopeNames.toSet()), action)
     }
 
     fun <T> withAbstractGenericScopeName(scopeName: String?, action: () -> T): T {
-        val oldScopeNames = myAbstractGenericScopeNames
-        myAbstractGenericScopeNames = scopeName?.let { setOf(scopeName) }
-        val ret = action()
-        myAbstractGenericScopeNames = oldScopeNames
-        return ret
+        return withState(state.copy(abstractGenericScopeNames = scopeName?.let { setOf(scopeName) }), action)
     }
 
     data class CacheStats(
@@ -141,9 +152,21 @@ abstract class SearchContext() {
     // Mapping type names to stats
     val cacheStats = mapOf<String, CacheStats>()
 
+    // Results inferred in dumb mode, or against a restricted scope, are not representative of the project as a whole.
+    val isProjectCacheable: Boolean
+        get() = !isDumb && state.scope.let { it == null || it is ProjectAndLibrariesScope }
+
+    private fun inferShared(psi: LuaPsiTypeGuessable): ITy? {
+        return if (isProjectCacheable) {
+            InferCache.getOrInfer(this, psi) { ILuaTypeInfer.infer(this, psi) }
+        } else {
+            ILuaTypeInfer.infer(this, psi)
+        }
+    }
+
     private fun inferAndCache(psi: LuaPsiTypeGuessable): ITy? {
         return if (index == -1) {
-            val result = myInferCache.getOrDefault(psi, null) ?: ILuaTypeInfer.infer(this, psi)
+            val result = myInferCache[psi] ?: inferShared(psi)
 
             if (result != null) {
                 myInferCache[psi] = result
@@ -151,7 +174,7 @@ abstract class SearchContext() {
 
             result
         } else {
-            ILuaTypeInfer.infer(this, psi)
+            inferShared(psi)
         }
     }
 
@@ -181,26 +204,44 @@ abstract class SearchContext() {
         }
 
         private fun <T> with(ctx: SearchContext, defaultValue: T, action: (ctx: SearchContext) -> T): T {
-            return if (ctx.myInStack) {
+            return if (ctx.inStack) {
                 val result = action(ctx)
                 result
             } else {
                 val stack = contextStack.get()
                 val size = stack.size
                 stack.push(ctx)
-                ctx.myInStack = true
+                ctx.inStack = true
                 val result = try {
                     action(ctx)
                 } catch (e: Exception) {
                     defaultValue
+                } finally {
+                    ctx.inStack = false
                 }
-                ctx.myInStack = false
                 stack.pop()
                 assert(size == stack.size)
                 result
             }
         }
 
+        /**
+         * Searches with [ctx] as the calling thread's current context (see [get]). Used to propagate a context
+         * (see [fork]) to a pooled thread.
+         */
+        fun <T> withContext(ctx: SearchContext, action: (ctx: SearchContext) -> T): T {
+            val stack = contextStack.get()
+            stack.push(ctx)
+            ctx.inStack = true
+
+            try {
+                return action(ctx)
+            } finally {
+                ctx.inStack = false
+                stack.pop()
+            }
+        }
+
         private fun <T> with(project: Project, action: (ctx: SearchContext) -> T): T {
             val ctx = get(project)
             return with(ctx, action)
@@ -213,11 +254,9 @@ abstract class SearchContext() {
 
         fun <T> withDumb(ctx: SearchContext, defaultValue: T, action: (ctx: SearchContext) -> T): T {
             return with(ctx, defaultValue) {
-                val dumb = it.myDumb
-                it.myDumb = true
-                val ret = action(it)
-                it.myDumb = dumb
-                ret
+                it.withState(it.state.copy(dumb = true)) {
+                    action(it)
+                }
             }
         }
     }
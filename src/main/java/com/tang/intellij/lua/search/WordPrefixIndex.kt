@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.lua.search
+
+import com.intellij.util.Processor
+
+/**
+ * A case-insensitive index of names, by the start of each of their words, mapping names to values.
+ *
+ * Each name and value pair is stored once. The index itself is an array of references to the start of each word of
+ * each name, sorted by the (lower case) first character of the word, so a lookup is a binary search for the first
+ * character of the prefix, followed by a scan of the words starting with it. Names are then matched against the whole
+ * prefix as camel humps (see [matches]), as IDE name matchers would.
+ *
+ * Names added or removed are buffered, and merged into the sorted array when next searched, once there are enough of
+ * them to be worth sorting.
+ *
+ * Not thread-safe, callers are responsible for synchronization.
+ */
+class WordPrefixIndex<T> {
+    private data class Entry<T>(val name: String, val value: T)
+
+    private class WordRef<T>(val entry: Entry<T>, val offset: Int, val key: Char)
+
+    companion object {
+        // Buffered changes are merged once there are more than this many, or than an eighth of the entries.
+        private const val MIN_MERGE_SIZE = 64
+
+        /**
+         * Offsets of the start of each word in [name], where words are delimited by underscores, dots (i.e. in module
+         * paths), digits and lower to upper case transitions. The last capital of an acronym followed by a lower case
+         * letter also starts a word e.g. "HTTPServer" is split into "HTTP" and "Server".
+         */
+        fun wordStarts(name: CharSequence): List<Int> {
+            return name.indices.filter { isWordStart(name, it) }
+        }
+
+        /**
+         * Whether [name] matches [prefix] as camel humps, case-insensitively. Starting at one of the name's word starts,
+         * each character of the prefix must either follow on from the previous one, or start a later word e.g. "hs",
+         * "httpServ" and "ser" each match "HTTPServer". This is at least as lenient as completion's prefix matchers, which
+         * filter names further.
+         */
+        fun matches(name: CharSequence, prefix: CharSequence): Boolean {
+            return prefix.isEmpty() || name.indices.any { isWordStart(name, it) && matchesWord(name, it, prefix) }
+        }
+
+        private fun isWordStart(name: CharSequence, i: Int): Boolean {
+            if (i == 0) {
+                return true
+            }
+
+            val c = name[i]
+
+            if (isDelimiter(c)) {
+                return false
+            }
+
+            val prev = name[i - 1]
+            return isDelimiter(prev)
+                    || (c.isUpperCase() && !prev.isUpperCase())
+                    || (c.isUpperCase() && i + 1 < name.length && name[i + 1].isLowerCase())
+                    || (c.isDigit() != prev.isDigit())
+        }
+
+        private fun isDelimiter(c: Char): Boolean {
+            return c == '_' || c == '.'
+        }
+
+        private fun matchesWord(name: CharSequence, start: Int, prefix: CharSequence): Boolean {
+            return name[start].lowercaseChar() == prefix[0].lowercaseChar() && matchesFrom(name, start + 1, prefix, 1)
+        }
+
+        private fun matchesFrom(name: CharSequence, position: Int, prefix: CharSequence, prefixIndex: Int): Boolean {
+            if (prefixIndex == prefix.length) {
+                return true
+            }
+
+            val c = prefix[prefixIndex].lowercaseChar()
+
+            if (position < name.length && name[position].lowercaseChar() == c && matchesFrom(name, position + 1, prefix, prefixIndex + 1)) {
+                return true
+            }
+
+            // Delimiters in the prefix may also skip ahead to the next delimiter e.g. "s_n" matches "server_name".
+            for (next in position + 1 until name.length) {
+                if ((isWordStart(name, next) || isDelimiter(c)) && name[next].lowercaseChar() == c && matchesFrom(name, next + 1, prefix, prefixIndex + 1)) {
+                    return true
+                }
+            }
+
+            return false
+        }
+    }
+
+    private val entries = HashSet<Entry<T>>()
+
+    // Words of merged entries, sorted by their lower case first character.
+    private var words: List<Entry<T>> = emptyList()
+    private var wordOffsets = IntArray(0)
+
+    // Entries added, or removed from the sorted words, since they were last merged.
+    private val added = LinkedHashSet<Entry<T>>()
+    private val removed = HashSet<Entry<T>>()
+
+    val isEmpty: Boolean
+        get() = entries.isEmpty()
+
+    fun contains(name: CharSequence, value: T): Boolean {
+        return entries.contains(Entry(name.toString(), value))
+    }
+
+    fun add(name: CharSequence, value: T) {
+        val entry = Entry(name.toString(), value)
+
+        if (entries.add(entry) && !removed.remove(entry)) {
+            added.add(entry)
+        }
+    }
+
+    fun remove(name: CharSequence, value: T) {
+        val entry = Entry(name.toString(), value)
+
+        if (entries.remove(entry) && !added.remove(entry)) {
+            removed.add(entry)
+        }
+    }
+
+    fun clear() {
+        entries.clear()
+        words = emptyList()
+        wordOffsets = IntArray(0)
+        added.clear()
+        removed.clear()
+    }
+
+    /**
+     * Processes each distinct value stored under a name that [matches] [prefix]. An empty prefix processes every value.
+     */
+    fun process(prefix: CharSequence, processor: Processor<in T>): Boolean {
+        val processed = HashSet<T>()
+
+        if (prefix.isEmpty()) {
+            return entries.all { !processed.add(it.value) || processor.process(it.value) }
+        }
+
+        if (added.size + removed.size > maxOf(MIN_MERGE_SIZE, entries.size / 8)) {
+            merge()
+        }
+
+        val key = prefix[0].lowercaseChar()
+
+        for (i in firstWord(key) until words.size) {
+            val entry = words[i]
+            val offset = wordOffsets[i]
+
+            if (entry.name[offset].lowercaseChar() != key) {
+                break
+            }
+
+            if (!removed.contains(entry) && matchesWord(entry.name, offset, prefix) && processed.add(entry.value) && !processor.process(entry.value)) {
+                return false
+            }
+        }
+
+        return added.all { !matches(it.name, prefix) || !processed.add(it.value) || processor.process(it.value) }
+    }
+
+    // The index of the first word whose lower case first character is not less than key.
+    private fun firstWord(key: Char): Int {
+        var low = 0
+        var high = words.size
+
+        while (low < high) {
+            val mid = (low + high) ushr 1
+
+            if (words[mid].name[wordOffsets[mid]].lowercaseChar() < key) {
+                low = mid + 1
+            } else {
+                high = mid
+            }
+        }
+
+        return low
+    }
+
+    private fun merge() {
+        val refs = ArrayList<WordRef<T>>()
+
+        entries.forEach { entry ->
+            entry.name.indices.forEach {
+                if (isWordStart(entry.name, it)) {
+                    refs.add(WordRef(entry, it, entry.name[it].lowercaseChar()))
+                }
+            }
+        }
+
+        refs.sortBy { it.key }
+
+        words = refs.map { it.entry }
+        wordOffsets = IntArray(refs.size) { refs[it].offset }
+        added.clear()
+        removed.clear()
+    }
+}
@@ -68,6 +68,8 @@ class LuaClassMethodType : LuaStubElementType<LuaClassMethodDefStatStub, LuaClas
         val overloads = def.overloads
         val genericParams = def.genericParams
 
+        flags = BitUtil.set(flags, FLAG_OVERLOADED, overloads.isNotEmpty())
+
         return LuaClassMethodDefStatStubImpl(flags,
                 id?.text ?: "",
                 classNameSet.toTypedArray(),
@@ -86,7 +88,7 @@ class LuaClassMethodType : LuaStubElementType<LuaClassMethodDefStatStub, LuaClas
     }
 
     private fun StubOutputStream.writeTypes(types: Array<ITyClass>) {
-        writeByte(types.size)
+        writeVarInt(types.size)
         types.forEach { Ty.serialize(it, this) }
     }
 
@@ -98,11 +100,11 @@ class LuaClassMethodType : LuaStubElementType<LuaClassMethodDefStatStub, LuaClas
         stubOutputStream.writeParamInfoArray(stub.params)
         stubOutputStream.writeGenericParamsNullable(stub.genericParams)
         stubOutputStream.writeTyNullable(stub.varargTy)
-        stubOutputStream.writeSignatures(stub.overloads)
+        stubOutputStream.writeDeferredSignatures(stub.overloads)
     }
 
     private fun StubInputStream.readTypes(): Array<ITyClass> {
-        val size = readByte()
+        val size = readVarInt()
         val list = mutableListOf<ITyClass>()
         for (i in 0 until size) {
             val ty = Ty.deserialize(this) as? ITyClass ?: continue
@@ -115,11 +117,11 @@ class LuaClassMethodType : LuaStubElementType<LuaClassMethodDefStatStub, LuaClas
         val classes = stubInputStream.readTypes()
         val shortName = stubInputStream.readName()
         val flags = stubInputStream.readShort()
-        val retDocTy = stubInputStream.readTyNullable()
+        val retDocTy = stubInputStream.readDeferredTyNullable()
         val params = stubInputStream.readParamInfoArray()
         val genericParams = stubInputStream.readGenericParamsNullable()
-        val varargTy = stubInputStream.readTyNullable()
-        val overloads = stubInputStream.readSignatures()
+        val varargTy = stubInputStream.readDeferredTyNullable()
+        val overloads = stubInputStream.readDeferredSignatures()
 
         return LuaClassMethodDefStatStubImpl(flags.toInt(),
                 StringRef.toString(shortName),
@@ -145,6 +147,7 @@ class LuaClassMethodType : LuaStubElementType<LuaClassMethodDefStatStub, LuaClas
         const val FLAG_STATIC = 0x10
         const val FLAG_DEPRECATED = 0x20
         const val FLAG_EXPLICITLY_TYPED = 0x40
+        const val FLAG_OVERLOADED = 0x80
     }
 }
 
@@ -163,13 +166,38 @@ class LuaClassMethodDefStatStubImpl(
     override val flags: Int,
     override val name: String,
     override val classes: Array<ITyClass>,
-    override val returnDocTy: ITy?,
+    private val lazyReturnDocTy: Lazy<ITy?>,
     override val params: Array<LuaParamInfo>,
     override val genericParams: Array<TyGenericParameter>?,
-    override val overloads: Array<IFunSignature>,
-    override val varargTy: ITy?,
+    private val lazyOverloads: Lazy<Array<IFunSignature>>,
+    private val lazyVarargTy: Lazy<ITy?>,
     parent: StubElement<*>
 ) : StubBase<LuaClassMethodDefStat>(parent, LuaElementType.CLASS_METHOD_DEF_STAT), LuaClassMethodDefStatStub {
+
+    constructor(
+        flags: Int,
+        name: String,
+        classes: Array<ITyClass>,
+        returnDocTy: ITy?,
+        params: Array<LuaParamInfo>,
+        genericParams: Array<TyGenericParameter>?,
+        overloads: Array<IFunSignature>,
+        varargTy: ITy?,
+        parent: StubElement<*>
+    ) : this(flags, name, classes, lazyOf(returnDocTy), params, genericParams, lazyOf(overloads), lazyOf(varargTy), parent)
+
+    override val returnDocTy: ITy?
+        get() = lazyReturnDocTy.value
+
+    override val overloads: Array<IFunSignature>
+        get() = lazyOverloads.value
+
+    override val hasOverloads: Boolean
+        get() = BitUtil.isSet(flags, LuaClassMethodType.FLAG_OVERLOADED)
+
+    override val varargTy: ITy?
+        get() = lazyVarargTy.value
+
     override val docTy: ITy? = null
 
     override val isStatic: Boolean
@@ -47,9 +47,9 @@ class LuaDocTableFieldType : LuaStubElementType<LuaDocTableFieldStub, LuaDocTabl
 
     override fun deserialize(stream: StubInputStream, stubElement: StubElement<*>): LuaDocTableFieldStub {
         val name = StringRef.toString(stream.readName())
-        val indexType = stream.readTyNullable()
+        val indexType = stream.readDeferredTyNullable()
         val parentTypeName = StringRef.toString(stream.readName())!!
-        val valueType = stream.readTyNullable()
+        val valueType = stream.readDeferredTyNullable()
 
         return if (name != null) {
             LuaDocTableFieldStubImpl(stubElement,
@@ -58,7 +58,7 @@ class LuaDocTableFieldType : LuaStubElementType<LuaDocTableFieldStub, LuaDocTabl
                     valueType)
         } else {
             LuaDocTableFieldStubImpl(stubElement,
-                    indexType!!,
+                    indexType,
                     parentTypeName,
                     valueType)
         }
@@ -120,24 +120,37 @@ interface LuaDocTableFieldStub : LuaClassMemberStub<LuaDocTableField> {
 
 class LuaDocTableFieldStubImpl : LuaDocStubBase<LuaDocTableField>, LuaDocTableFieldStub {
     override val name: String?
-    override val indexTy: ITy?
-    override val valueTy: ITy?
     override val parentTypeName: String
     override val isExplicitlyTyped: Boolean = true
 
+    private val lazyIndexTy: Lazy<ITy?>
+    private val lazyValueTy: Lazy<ITy?>
+
+    override val indexTy: ITy?
+        get() = lazyIndexTy.value
+
+    override val valueTy: ITy?
+        get() = lazyValueTy.value
+
     constructor(parent: StubElement<*>, name: String, parentTypeName: String, valueTy: ITy?)
+            : this(parent, name, parentTypeName, lazyOf(valueTy))
+
+    constructor(parent: StubElement<*>, indexType: ITy?, parentTypeName: String, valueTy: ITy?)
+            : this(parent, lazyOf(indexType), parentTypeName, lazyOf(valueTy))
+
+    constructor(parent: StubElement<*>, name: String, parentTypeName: String, valueTy: Lazy<ITy?>)
             : super(parent, LuaElementType.DOC_TABLE_FIELD_DEF) {
         this.name = name
-        this.indexTy = null
+        this.lazyIndexTy = lazyOf(null)
         this.parentTypeName = parentTypeName
-        this.valueTy = valueTy
+        this.lazyValueTy = valueTy
     }
 
-    constructor(parent: StubElement<*>, indexType: ITy?, parentTypeName: String, valueTy: ITy?)
+    constructor(parent: StubElement<*>, indexType: Lazy<ITy?>, parentTypeName: String, valueTy: Lazy<ITy?>)
             : super(parent, LuaElementType.DOC_TABLE_FIELD_DEF) {
         this.name = null
-        this.indexTy = indexType
+        this.lazyIndexTy = indexType
         this.parentTypeName = parentTypeName
-        this.valueTy = valueTy
+        this.lazyValueTy = valueTy
     }
 }
@@ -99,9 +99,9 @@ class LuaDocTagFieldType : LuaStubElementType<LuaDocTagFieldStub, LuaDocTagField
     override fun deserialize(stubInputStream: StubInputStream, stubElement: StubElement<*>): LuaDocTagFieldStub {
         val className = StringRef.toString(stubInputStream.readName())!!
         val name = StringRef.toString(stubInputStream.readName())
-        val indexType = stubInputStream.readTyNullable()
+        val indexType = stubInputStream.readDeferredTyNullable()
         val flags = stubInputStream.readShort().toInt()
-        val valueType = Ty.deserialize(stubInputStream)
+        val valueType = stubInputStream.readDeferredTy()
 
         return if (name != null) {
             LuaDocFieldDefStubImpl(stubElement,
@@ -112,7 +112,7 @@ class LuaDocTagFieldType : LuaStubElementType<LuaDocTagFieldStub, LuaDocTagField
         } else {
             LuaDocFieldDefStubImpl(stubElement,
                     className,
-                    indexType!!,
+                    indexType,
                     flags,
                     valueType)
         }
@@ -154,11 +154,18 @@ interface LuaDocTagFieldStub : LuaClassMemberStub<LuaDocTagField> {
 class LuaDocFieldDefStubImpl : LuaDocStubBase<LuaDocTagField>, LuaDocTagFieldStub {
     override val className: String
     override val name: String?
-    override val indexTy: ITy?
     override val flags: Int
-    override val valueTy: ITy
     override val isExplicitlyTyped: Boolean = true
 
+    private val lazyIndexTy: Lazy<ITy?>
+    private val lazyValueTy: Lazy<ITy>
+
+    override val indexTy: ITy?
+        get() = lazyIndexTy.value
+
+    override val valueTy: ITy
+        get() = lazyValueTy.value
+
     override val isDeprecated: Boolean
         get() = BitUtil.isSet(flags, LuaDocTagFieldType.FLAG_DEPRECATED)
 
@@ -166,20 +173,26 @@ class LuaDocFieldDefStubImpl : LuaDocStubBase<LuaDocTagField>, LuaDocTagFieldStu
         get() = Visibility.getWithMask(flags)
 
     constructor(parent: StubElement<*>, className: String, name: String, flags: Int, valueTy: ITy)
+            : this(parent, className, name, flags, lazyOf(valueTy))
+
+    constructor(parent: StubElement<*>, className: String, indexType: ITy, flags: Int, valueTy: ITy)
+            : this(parent, className, lazyOf(indexType), flags, lazyOf(valueTy))
+
+    constructor(parent: StubElement<*>, className: String, name: String, flags: Int, valueTy: Lazy<ITy>)
             : super(parent, LuaElementType.CLASS_FIELD_DEF) {
         this.className = className
         this.name = name
-        this.indexTy = null
+        this.lazyIndexTy = lazyOf(null)
         this.flags = flags
-        this.valueTy = valueTy
+        this.lazyValueTy = valueTy
     }
 
-    constructor(parent: StubElement<*>, className: String, indexType: ITy, flags: Int, valueTy: ITy)
+    constructor(parent: StubElement<*>, className: String, indexType: Lazy<ITy?>, flags: Int, valueTy: Lazy<ITy>)
             : super(parent, LuaElementType.CLASS_FIELD_DEF) {
         this.className = className
         this.name = null
-        this.indexTy = indexType
+        this.lazyIndexTy = indexType
         this.flags = flags
-        this.valueTy = valueTy
+        this.lazyValueTy = valueTy
     }
 }
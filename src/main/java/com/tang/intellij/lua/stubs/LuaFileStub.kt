@@ -93,6 +93,8 @@ class LuaFileElementType : IStubFileElementType<LuaFileStub>(LuaLanguage.INSTANC
     }
 
     override fun getExternalId() = "lua.file"
+
+    override fun getStubVersion() = LuaLanguage.INDEX_VERSION
 }
 
 class LuaFileStub : PsiFileStubImpl<LuaPsiFile> {
@@ -34,6 +34,12 @@ interface LuaFuncBodyOwnerStub<T : PsiElement> : StubElement<T> {
     val overloads: Array<IFunSignature>
     val varargTy: ITy?
 
+    /**
+     * Whether [overloads] is non-empty. Implementations may answer without decoding the overloads.
+     */
+    val hasOverloads: Boolean
+        get() = overloads.isNotEmpty()
+
     private fun walkBody(context: SearchContext, stub: StubElement<*>): ITy? {
         val psi = stub.psi
         var ty: ITy? = null
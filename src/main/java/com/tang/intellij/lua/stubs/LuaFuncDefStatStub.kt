@@ -56,6 +56,7 @@ class LuaFuncType : LuaStubElementType<LuaFuncDefStatStub, LuaFuncDefStat>("Glob
         var flags = BitUtil.set(0, funcDefStat.visibility.bitMask, true)
         flags = BitUtil.set(flags, FLAG_DEPRECATED, funcDefStat.isDeprecated)
         flags = BitUtil.set(flags, FLAG_EXPLICITLY_TYPED, funcDefStat.isExplicitlyTyped)
+        flags = BitUtil.set(flags, FLAG_OVERLOADED, overloads.isNotEmpty())
 
         return LuaFuncDefStatStubImpl(nameRef.text,
                 moduleName,
@@ -81,18 +82,18 @@ class LuaFuncType : LuaStubElementType<LuaFuncDefStatStub, LuaFuncDefStat>("Glob
         stream.writeTyNullable(stub.varargTy)
         stream.writeParamInfoArray(stub.params)
         stream.writeGenericParamsNullable(stub.genericParams)
-        stream.writeSignatures(stub.overloads)
+        stream.writeDeferredSignatures(stub.overloads)
     }
 
     override fun deserialize(stream: StubInputStream, stubElement: StubElement<*>): LuaFuncDefStatStub {
         val name = stream.readName()
         val module = stream.readName()
         val flags = stream.readShort()
-        val retDocTy = stream.readTyNullable()
-        val varargTy = stream.readTyNullable()
+        val retDocTy = stream.readDeferredTyNullable()
+        val varargTy = stream.readDeferredTyNullable()
         val params = stream.readParamInfoArray()
         val genericParams = stream.readGenericParamsNullable()
-        val overloads = stream.readSignatures()
+        val overloads = stream.readDeferredSignatures()
         return LuaFuncDefStatStubImpl(StringRef.toString(name),
                 StringRef.toString(module),
                 flags.toInt(),
@@ -116,6 +117,7 @@ class LuaFuncType : LuaStubElementType<LuaFuncDefStatStub, LuaFuncDefStat>("Glob
     companion object {
         const val FLAG_DEPRECATED = 0x20
         const val FLAG_EXPLICITLY_TYPED = 0x40
+        const val FLAG_OVERLOADED = 0x80
     }
 }
 
@@ -129,13 +131,38 @@ class LuaFuncDefStatStubImpl(
     override val name: String,
     override val module: String,
     override val flags: Int,
-    override val returnDocTy: ITy?,
-    override val varargTy: ITy?,
+    private val lazyReturnDocTy: Lazy<ITy?>,
+    private val lazyVarargTy: Lazy<ITy?>,
     override val params: Array<LuaParamInfo>,
     override val genericParams: Array<TyGenericParameter>?,
-    override val overloads: Array<IFunSignature>,
+    private val lazyOverloads: Lazy<Array<IFunSignature>>,
     parent: StubElement<*>
 ) : StubBase<LuaFuncDefStat>(parent, LuaTypes.FUNC_DEF_STAT as IStubElementType<*, *>), LuaFuncDefStatStub {
+
+    constructor(
+        name: String,
+        module: String,
+        flags: Int,
+        returnDocTy: ITy?,
+        varargTy: ITy?,
+        params: Array<LuaParamInfo>,
+        genericParams: Array<TyGenericParameter>?,
+        overloads: Array<IFunSignature>,
+        parent: StubElement<*>
+    ) : this(name, module, flags, lazyOf(returnDocTy), lazyOf(varargTy), params, genericParams, lazyOf(overloads), parent)
+
+    override val returnDocTy: ITy?
+        get() = lazyReturnDocTy.value
+
+    override val varargTy: ITy?
+        get() = lazyVarargTy.value
+
+    override val overloads: Array<IFunSignature>
+        get() = lazyOverloads.value
+
+    override val hasOverloads: Boolean
+        get() = BitUtil.isSet(flags, LuaFuncType.FLAG_OVERLOADED)
+
     override val docTy: ITy?
         get() = null
 
@@ -113,9 +113,9 @@ class LuaIndexExprType : LuaStubElementType<LuaIndexExprStub, LuaIndexExpr>("IND
     override fun deserialize(stubInputStream: StubInputStream, stubElement: StubElement<*>): LuaIndexExprStub {
         val classNames = stubInputStream.readNames()
         val fieldName = stubInputStream.readName()
-        val idTy = stubInputStream.readTyNullable()
+        val idTy = stubInputStream.readDeferredTyNullable()
         val flags = stubInputStream.readInt()
-        val docTy = stubInputStream.readTyNullable()
+        val docTy = stubInputStream.readDeferredTyNullable()
         return LuaIndexExprStubImpl(classNames,
                 StringRef.toString(fieldName),
                 idTy,
@@ -164,12 +164,22 @@ interface LuaIndexExprStub : StubElement<LuaIndexExpr>, LuaClassMemberStub<LuaIn
 
 class LuaIndexExprStubImpl(override val classNames: Array<String>,
                            override val name: String?,
-                           override val idTy: ITy?,
+                           private val lazyIdTy: Lazy<ITy?>,
                            override val flags: Int,
-                           override val docTy: ITy?,
+                           private val lazyDocTy: Lazy<ITy?>,
                            stubElement: StubElement<*>,
                            indexType: LuaIndexExprType)
     : LuaStubBase<LuaIndexExpr>(stubElement, indexType), LuaIndexExprStub {
+
+    constructor(classNames: Array<String>, name: String?, idTy: ITy?, flags: Int, docTy: ITy?, stubElement: StubElement<*>, indexType: LuaIndexExprType)
+            : this(classNames, name, lazyOf(idTy), flags, lazyOf(docTy), stubElement, indexType)
+
+    override val idTy: ITy?
+        get() = lazyIdTy.value
+
+    override val docTy: ITy?
+        get() = lazyDocTy.value
+
     override val isDeprecated: Boolean
         get() = BitUtil.isSet(flags, LuaIndexExprType.FLAG_DEPRECATED)
 
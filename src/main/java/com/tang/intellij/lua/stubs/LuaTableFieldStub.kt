@@ -103,12 +103,13 @@ class LuaTableFieldType : LuaStubElementType<LuaTableFieldStub, LuaTableField>("
     override fun deserialize(stubInputStream: StubInputStream, stubElement: StubElement<*>): LuaTableFieldStub {
         val className = StringRef.toString(stubInputStream.readName())
         val name = StringRef.toString(stubInputStream.readName())
-        val indexType = stubInputStream.readTyNullable()
-        val isIndexExpression = if (indexType != null) {
+        val hasIndexType = stubInputStream.readBoolean()
+        val indexType = if (hasIndexType) stubInputStream.readDeferredTy() else lazyOf(null)
+        val isIndexExpression = if (hasIndexType) {
             stubInputStream.readBoolean()
         } else false
         val flags = stubInputStream.readShort().toInt()
-        val valueType = stubInputStream.readTyNullable()
+        val valueType = stubInputStream.readDeferredTyNullable()
 
         return if (name != null) {
             LuaTableFieldStubImpl(stubElement,
@@ -184,10 +185,17 @@ interface LuaTableFieldStub : LuaClassMemberStub<LuaTableField> {
 class LuaTableFieldStubImpl : LuaStubBase<LuaTableField>, LuaTableFieldStub {
     override val className: String?
     override val name: String?
-    override val indexTy: ITy?
     override val isIndexExpression: Boolean
     override val flags: Int
+
+    private val lazyIndexTy: Lazy<ITy?>
+    private val lazyValueTy: Lazy<ITy?>
+
+    override val indexTy: ITy?
+        get() = lazyIndexTy.value
+
     override val valueTy: ITy?
+        get() = lazyValueTy.value
 
     override val isDeprecated: Boolean
         get() = BitUtil.isSet(flags, LuaTableFieldType.FLAG_DEPRECATED)
@@ -198,22 +206,28 @@ class LuaTableFieldStubImpl : LuaStubBase<LuaTableField>, LuaTableFieldStub {
     override val visibility: Visibility = Visibility.PUBLIC
 
     constructor(parent: StubElement<*>, elementType: LuaStubElementType<*, *>, className: String?, name: String?, flags: Int, valueTy: ITy?)
+            : this(parent, elementType, className, name, flags, lazyOf(valueTy))
+
+    constructor(parent: StubElement<*>, elementType: LuaStubElementType<*, *>, className: String?, indexType: ITy?, isIndexExpression: Boolean, flags: Int, valueTy: ITy?)
+            : this(parent, elementType, className, lazyOf(indexType), isIndexExpression, flags, lazyOf(valueTy))
+
+    constructor(parent: StubElement<*>, elementType: LuaStubElementType<*, *>, className: String?, name: String?, flags: Int, valueTy: Lazy<ITy?>)
             : super(parent, elementType) {
         this.className = className
         this.name = name
-        this.indexTy = null
+        this.lazyIndexTy = lazyOf(null)
         this.isIndexExpression = false
         this.flags = flags
-        this.valueTy = valueTy
+        this.lazyValueTy = valueTy
     }
 
-    constructor(parent: StubElement<*>, elementType: LuaStubElementType<*, *>, className: String?, indexType: ITy?, isIndexExpression: Boolean, flags: Int, valueTy: ITy?)
+    constructor(parent: StubElement<*>, elementType: LuaStubElementType<*, *>, className: String?, indexType: Lazy<ITy?>, isIndexExpression: Boolean, flags: Int, valueTy: Lazy<ITy?>)
             : super(parent, elementType) {
         this.className = className
         this.name = null
-        this.indexTy = indexType
+        this.lazyIndexTy = indexType
         this.isIndexExpression = isIndexExpression
         this.flags = flags
-        this.valueTy = valueTy
+        this.lazyValueTy = valueTy
     }
 }
@@ -23,7 +23,7 @@ import com.tang.intellij.lua.psi.LuaParamInfo
 import com.tang.intellij.lua.ty.*
 
 fun StubOutputStream.writeParamInfoArray(params: Array<out LuaParamInfo>) {
-    writeByte(params.size)
+    writeVarInt(params.size)
     for (param in params) {
         LuaParamInfo.serialize(param, this)
     }
@@ -31,7 +31,7 @@ fun StubOutputStream.writeParamInfoArray(params: Array<out LuaParamInfo>) {
 
 fun StubInputStream.readParamInfoArray(): Array<LuaParamInfo> {
     val list = mutableListOf<LuaParamInfo>()
-    val size = readByte()
+    val size = readVarInt()
     for (j in 0 until size) {
         list.add(LuaParamInfo.deserialize(this))
     }
@@ -51,14 +51,14 @@ fun StubInputStream.readParamInfoArrayNullable(): Array<LuaParamInfo>? {
 }
 
 fun StubOutputStream.writeSignatures(signatures: Array<out IFunSignature>) {
-    writeByte(signatures.size)
+    writeVarInt(signatures.size)
     for (sig in signatures) {
         FunSignature.serialize(sig, this)
     }
 }
 
 fun StubInputStream.readSignatures(): Array<IFunSignature> {
-    val size = readByte()
+    val size = readVarInt()
     val arr = mutableListOf<IFunSignature>()
     for (i in 0 until size) {
         arr.add(FunSignature.deserialize(this))
@@ -89,14 +89,43 @@ fun StubOutputStream.writeTyNullable(ty: ITy?) {
         Ty.serialize(ty, this)
 }
 
+/**
+ * Reads a type written by [Ty.serialize], deferring decoding until it's first accessed.
+ *
+ * Stubs hold deferred types (and signatures) as the returned [Lazy], so that stubs that are only loaded for their names
+ * (e.g. index lookups) never decode their types. Until it's accessed, the value retains only the raw encoding of the type
+ * itself (not the rest of the stream, or other stubs' types), see [TyStubFrame].
+ */
+fun StubInputStream.readDeferredTy(): Lazy<ITy> {
+    return TyStubFrame.readLazy(this)
+}
+
+/**
+ * As [readDeferredTy], for a type written by [writeTyNullable].
+ */
+fun StubInputStream.readDeferredTyNullable(): Lazy<ITy?> {
+    return TyStubFrame.readNullableLazy(this)
+}
+
+fun StubOutputStream.writeDeferredSignatures(signatures: Array<out IFunSignature>) {
+    TyStubFrame.writeSignatures(signatures, this)
+}
+
+/**
+ * As [readDeferredTy], for signatures written by [writeDeferredSignatures].
+ */
+fun StubInputStream.readDeferredSignatures(): Lazy<Array<IFunSignature>> {
+    return TyStubFrame.readSignaturesLazy(this)
+}
+
 fun StubOutputStream.writeNames(names: Array<String>) {
-    writeInt(names.size)
+    writeVarInt(names.size)
     names.forEach { writeName(it) }
 }
 
 fun StubInputStream.readNames(): Array<String> {
     val list = mutableListOf<String>()
-    val size = readInt()
+    val size = readVarInt()
     for (i in 0 until size) {
         list.add(StringRef.toString(readName()))
     }
@@ -104,7 +133,7 @@ fun StubInputStream.readNames(): Array<String> {
 }
 
 fun StubOutputStream.writeGenericParamsNullable(genericParams: Array<out TyGenericParameter>?) {
-    writeByte(genericParams?.size ?: 0)
+    writeVarInt(genericParams?.size ?: 0)
     genericParams?.forEach { parameter ->
         writeName(parameter.className)
         writeName(parameter.scopeName)
@@ -115,9 +144,9 @@ fun StubOutputStream.writeGenericParamsNullable(genericParams: Array<out TyGener
 
 fun StubInputStream.readGenericParamsNullable(): Array<TyGenericParameter>? {
     val list = mutableListOf<TyGenericParameter>()
-    val size = readByte()
+    val size = readVarInt()
 
-    if (size == 0.toByte()) {
+    if (size == 0) {
         return null
     }
 
@@ -16,9 +16,15 @@
 
 package com.tang.intellij.lua.stubs.index
 
+import com.intellij.openapi.project.Project
+import com.intellij.psi.search.GlobalSearchScope
 import com.intellij.psi.stubs.StringStubIndexExtension
+import com.intellij.psi.stubs.StubIndex
 import com.intellij.psi.stubs.StubIndexKey
+import com.intellij.util.Processor
+import com.intellij.util.indexing.IdFilter
 import com.tang.intellij.lua.comment.psi.LuaDocTagAlias
+import com.tang.intellij.lua.search.InferDependencies
 import com.tang.intellij.lua.search.SearchContext
 
 class LuaAliasIndex : StringStubIndexExtension<LuaDocTagAlias>() {
@@ -29,8 +35,20 @@ class LuaAliasIndex : StringStubIndexExtension<LuaDocTagAlias>() {
             if (context.isDumb)
                 return null
 
+            InferDependencies.record(StubKeys.ALIAS, name)
             return instance.get(name, context.project, context.scope)?.firstOrNull()
         }
+
+        /**
+         * Processes the names of aliases declared in files within [scope], as they're read from the index.
+         */
+        fun processKeys(scope: GlobalSearchScope, idFilter: IdFilter?, processor: Processor<in String>): Boolean {
+            return StubIndex.getInstance().processAllKeys(StubKeys.ALIAS, processor, scope, idFilter)
+        }
+
+        fun processElements(key: String, project: Project, scope: GlobalSearchScope, idFilter: IdFilter?, processor: Processor<in LuaDocTagAlias>): Boolean {
+            return StubIndex.getInstance().processElements(StubKeys.ALIAS, key, project, scope, idFilter, LuaDocTagAlias::class.java, processor)
+        }
     }
 
     override fun getKey(): StubIndexKey<String, LuaDocTagAlias> {
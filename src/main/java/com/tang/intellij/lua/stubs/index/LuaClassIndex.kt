@@ -20,10 +20,13 @@ import com.intellij.openapi.project.Project
 import com.intellij.psi.search.GlobalSearchScope
 import com.intellij.psi.search.ProjectAndLibrariesScope
 import com.intellij.psi.stubs.StringStubIndexExtension
+import com.intellij.psi.stubs.StubIndex
 import com.intellij.util.Processor
 import com.intellij.util.containers.ContainerUtil
+import com.intellij.util.indexing.IdFilter
 import com.tang.intellij.lua.comment.psi.LuaDocTagClass
 import com.tang.intellij.lua.lang.LuaLanguage
+import com.tang.intellij.lua.search.InferDependencies
 import com.tang.intellij.lua.search.SearchContext
 
 /**
@@ -57,21 +60,28 @@ class LuaClassIndex : StringStubIndexExtension<LuaDocTagClass>() {
         }
 
         fun process(key: String, project: Project, scope: GlobalSearchScope, processor: Processor<LuaDocTagClass>): Boolean {
+            InferDependencies.record(StubKeys.CLASS, key)
             val collection = instance.get(key, project, scope)
             return ContainerUtil.process(collection, processor)
         }
 
-        fun processKeys(project: Project, processor: Processor<String>): Boolean {
-            val scope = ProjectAndLibrariesScope(project)
-            val allKeys = instance.getAllKeys(project)
-            for (key in allKeys) {
-                val ret = process(key, project, scope) {
-                    false
-                }
-                if (!ret && !processor.process(key))
-                    return false
-            }
-            return true
+        fun processKeys(project: Project, processor: Processor<in String>): Boolean {
+            return processKeys(ProjectAndLibrariesScope(project), null, processor)
+        }
+
+        /**
+         * Processes the names of classes declared in files within [scope], as they're read from the index. Only keys are
+         * enumerated, class declarations are never loaded.
+         */
+        fun processKeys(scope: GlobalSearchScope, idFilter: IdFilter?, processor: Processor<in String>): Boolean {
+            return StubIndex.getInstance().processAllKeys(StubKeys.CLASS, processor, scope, idFilter)
+        }
+
+        /**
+         * Processes the declarations of the class named [key] within [scope], as they're read from the index.
+         */
+        fun processElements(key: String, project: Project, scope: GlobalSearchScope, idFilter: IdFilter?, processor: Processor<in LuaDocTagClass>): Boolean {
+            return StubIndex.getInstance().processElements(StubKeys.CLASS, key, project, scope, idFilter, LuaDocTagClass::class.java, processor)
         }
     }
 }
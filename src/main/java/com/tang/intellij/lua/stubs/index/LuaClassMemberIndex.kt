@@ -24,8 +24,12 @@ import com.intellij.psi.stubs.StringStubIndexExtension
 import com.intellij.psi.stubs.StubIndex
 import com.intellij.util.Processor
 import com.intellij.util.containers.ContainerUtil
+import com.tang.intellij.lua.Constants
 import com.tang.intellij.lua.psi.LuaPsiTypeMember
 import com.tang.intellij.lua.psi.LuaTypeMethod
+import com.tang.intellij.lua.search.ClassMemberCache
+import com.tang.intellij.lua.search.InferDependencies
+import com.tang.intellij.lua.search.LuaGlobalSymbolTable
 import com.tang.intellij.lua.search.SearchContext
 import com.tang.intellij.lua.ty.*
 
@@ -44,7 +48,7 @@ class LuaClassMemberIndex : StringStubIndexExtension<LuaPsiTypeMember>() {
 
         private fun processKey(context: SearchContext, type: ITyClass, key: String, process: ProcessLuaPsiClassMember): Boolean {
             if (!context.isDumb) {
-                LuaClassMemberIndex.instance.get(key, context.project, context.scope).forEach {
+                getMembers(context, key).forEach {
                     ProgressManager.checkCanceled()
 
                     if (!process(type, it)) {
@@ -107,12 +111,84 @@ class LuaClassMemberIndex : StringStubIndexExtension<LuaPsiTypeMember>() {
             return true
         }
 
+        private fun collectHierarchy(
+            context: SearchContext,
+            root: ITyClass,
+            owner: ITyClass,
+            className: String,
+            deep: Boolean,
+            visited: MutableMap<String, Boolean>,
+            hierarchy: MutableList<ClassMemberCache.HierarchyEntry>
+        ) {
+            val visitedDeep = visited[className]
+
+            if (visitedDeep == null) {
+                hierarchy.add(ClassMemberCache.HierarchyEntry(if (owner === root) null else owner, className))
+            } else if (visitedDeep || !deep) {
+                return
+            }
+
+            visited[className] = deep
+
+            if (visitedDeep == null) {
+                owner.lazyInit(context)
+                owner.processAlias { aliasedName ->
+                    if (className != aliasedName) {
+                        val aliasedClass = LuaClassIndex.find(context, aliasedName)?.type
+
+                        if (aliasedClass != null) {
+                            collectHierarchy(context, root, aliasedClass, aliasedName, deep, visited, hierarchy)
+                        } else {
+                            // Anonymous type not in the class index i.e. table expression
+                            collectHierarchy(context, root, owner, aliasedName, false, visited, hierarchy)
+                        }
+                    }
+
+                    true
+                }
+            }
+
+            if (deep) {
+                Ty.processSuperClasses(context, owner) { superType ->
+                    val superClass = (if (superType is ITyGeneric) superType.base else superType) as? ITyClass
+                    if (superClass != null) {
+                        collectHierarchy(context, root, superClass, superClass.className, true, visited, hierarchy)
+                    }
+                    true
+                }
+            }
+        }
+
         private fun processClassKeys(context: SearchContext, cls: ITyClass, keys: Collection<String>, deep: Boolean, process: ProcessLuaPsiClassMember): Boolean {
-            return if (cls is TyGenericParameter) {
-                (cls.superClass as? ITyClass)?.let { processClassKeys(context, it, it.className, keys, deep, process) } ?: true
+            val root = if (cls is TyGenericParameter) {
+                cls.superClass as? ITyClass ?: return true
             } else {
-                processClassKeys(context, cls, cls.className, keys, deep, process)
+                cls
+            }
+
+            // Anonymous classes carry their own hierarchy, rather than it being determined by their name.
+            if (!context.isProjectCacheable || root.isAnonymous) {
+                return processClassKeys(context, root, root.className, keys, deep, process)
             }
+
+            // Cached hierarchies are shared by all contexts, so super classes are resolved independent of the context's element.
+            val hierarchy = ClassMemberCache.getInstance(context.project).getHierarchy(root.className, deep) {
+                mutableListOf<ClassMemberCache.HierarchyEntry>().also {
+                    collectHierarchy(context.getProjectContext(), root, root, root.className, deep, mutableMapOf(), it)
+                }
+            }
+
+            for (entry in hierarchy) {
+                val owner = entry.owner ?: root
+
+                for (key in keys) {
+                    if (!processKey(context, owner, "${entry.className}$key", process)) {
+                        return false
+                    }
+                }
+            }
+
+            return true
         }
 
         fun getMembers(context: SearchContext, className: String): Collection<LuaPsiTypeMember> {
@@ -120,6 +196,14 @@ class LuaClassMemberIndex : StringStubIndexExtension<LuaPsiTypeMember>() {
                 return listOf()
             }
 
+            if (context.isProjectCacheable) {
+                return ClassMemberCache.getInstance(context.project).getIndexMembers(className) {
+                    InferDependencies.record(StubKeys.CLASS_MEMBER, className)
+                    instance.get(className, context.project, context.scope)
+                }
+            }
+
+            InferDependencies.record(StubKeys.CLASS_MEMBER, className)
             return instance.get(className, context.project, context.scope)
         }
 
@@ -269,10 +353,16 @@ class LuaClassMemberIndex : StringStubIndexExtension<LuaPsiTypeMember>() {
                 return true
             }
 
-            val key = "$namespace*$memberName"
+            if (namespace == Constants.WORD_G && context.isProjectCacheable) {
+                val globals = LuaGlobalSymbolTable.getInstance(context.project)
+
+                if (globals.isReady) {
+                    val symbol = globals.find(context, memberName)
+                    return symbol == null || ContainerUtil.process(symbol.members, processor)
+                }
+            }
 
-            val members = LuaClassMemberIndex.instance.get(key, context.project, context.scope)
-            return ContainerUtil.process(members, processor)
+            return ContainerUtil.process(getMembers(context, "$namespace*$memberName"), processor)
         }
 
         fun indexMemberStub(indexSink: IndexSink, className: String, memberName: String) {
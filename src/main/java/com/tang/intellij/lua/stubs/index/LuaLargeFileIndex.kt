@@ -0,0 +1,454 @@
+/*
+ * Copyright (c) 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.lua.stubs.index
+
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.project.DumbService
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.psi.TokenType
+import com.intellij.psi.tree.IElementType
+import com.intellij.util.Processor
+import com.intellij.util.containers.ContainerUtil
+import com.intellij.util.indexing.*
+import com.intellij.util.io.DataExternalizer
+import com.intellij.util.io.EnumeratorStringDescriptor
+import com.intellij.util.io.KeyDescriptor
+import com.tang.intellij.lua.lang.LuaFileType
+import com.tang.intellij.lua.lang.LuaLanguage
+import com.tang.intellij.lua.lang.LuaParserDefinition
+import com.tang.intellij.lua.lang.type.LuaString
+import com.tang.intellij.lua.lexer.LuaLexerAdapter
+import com.tang.intellij.lua.project.LuaSettings
+import com.tang.intellij.lua.psi.LuaPsiFile
+import com.tang.intellij.lua.psi.LuaTypes
+import com.tang.intellij.lua.search.SearchContext
+import com.tang.intellij.lua.ty.getGlobalTypeName
+import java.io.DataInput
+import java.io.DataOutput
+
+/**
+ * Indexes the shape of files too large to build stubs for (see [LuaSettings.tooLargerFileThreshold]), typically
+ * generated data files, with a single pass of the lexer. Neither an AST nor PSI is built.
+ *
+ * Records `---@class` tags, the fields of top-level table constructors (and those assigned to top-level tables with
+ * `t.field = ...` or `function t.field()`) and which table the file returns. Anonymous (including local) tables are
+ * named as [com.tang.intellij.lua.ty.getTableTypeName] would name them, and globals as per [getGlobalTypeName].
+ *
+ * Which files are indexed depends on the threshold setting, so the settings panel requests a rebuild when it changes,
+ * and results are filtered by the current threshold until then. Classes are only known by their fields (see
+ * [processFields]), they aren't resolvable as [com.tang.intellij.lua.psi.LuaClass]es.
+ */
+class LuaLargeFileIndex : FileBasedIndexExtension<String, LuaLargeFileIndex.Shape>() {
+
+    companion object {
+        val NAME: ID<String, Shape> = ID.create("lua.large.file.shape")
+
+        private const val CLASS_PREFIX = "c:"
+        private const val TABLE_PREFIX = "t:"
+        private const val RETURN_KEY = "@return"
+
+        // Bounds the index data of a single table, no matter how large the file is.
+        private const val MAX_FIELDS = 10000
+
+        private val CLASS_TAG_REGEX = Regex("@class\\s+([\\w.]+)(?:<[^>]*>)?(?:\\s*:\\s*([\\w.]+))?")
+
+        /**
+         * Whether [file] exceeds the current [LuaSettings.tooLargerFileThreshold], and is therefore indexed.
+         */
+        fun isLargeFile(file: VirtualFile): Boolean {
+            return file.length > LuaSettings.instance.tooLargerFileThreshold * 1024L
+        }
+
+        /**
+         * Processes the names of the fields of [typeName] (a class, or table type name) declared in large files,
+         * including those a class inherits from super classes that are themselves declared in large files.
+         */
+        fun processFields(context: SearchContext, typeName: String, processor: Processor<String>): Boolean {
+            if (context.isDumb) {
+                return true
+            }
+
+            val index = FileBasedIndex.getInstance()
+            val processedClasses = HashSet<String>()
+            var className: String? = typeName
+
+            if (!index.processValues(NAME, TABLE_PREFIX + typeName, null, { file, shape ->
+                    !isLargeFile(file) || ContainerUtil.process(shape.fields, processor)
+                }, context.scope)) {
+                return false
+            }
+
+            while (className != null && processedClasses.add(className)) {
+                var superClassName: String? = null
+
+                if (!index.processValues(NAME, CLASS_PREFIX + className, null, { file, shape ->
+                        if (!isLargeFile(file)) {
+                            return@processValues true
+                        }
+
+                        superClassName = superClassName ?: shape.typeName
+                        ContainerUtil.process(shape.fields, processor)
+                    }, context.scope)) {
+                    return false
+                }
+
+                className = superClassName
+            }
+
+            return true
+        }
+
+        /**
+         * The name of the type returned by [file], if it's a large file that returns a table.
+         */
+        fun getReturnTypeName(file: LuaPsiFile): String? {
+            val virtualFile = file.originalFile.virtualFile ?: return null
+
+            if (DumbService.isDumb(file.project) || !isLargeFile(virtualFile)) {
+                return null
+            }
+
+            return FileBasedIndex.getInstance().getFileData(NAME, virtualFile, file.project)[RETURN_KEY]?.typeName
+        }
+    }
+
+    enum class Kind {
+        CLASS,
+        TABLE,
+        RETURN
+    }
+
+    /**
+     * For a class, [typeName] is its super class. For a file's return value, it's the name of the returned type.
+     */
+    data class Shape(val offset: Int, val kind: Kind, val typeName: String?, val fields: List<String>)
+
+    override fun getValueExternalizer() = object : DataExternalizer<Shape> {
+        override fun save(output: DataOutput, shape: Shape) {
+            output.writeInt(shape.offset)
+            output.writeByte(shape.kind.ordinal)
+            output.writeBoolean(shape.typeName != null)
+            shape.typeName?.let { output.writeUTF(it) }
+            output.writeInt(shape.fields.size)
+            shape.fields.forEach { output.writeUTF(it) }
+        }
+
+        override fun read(input: DataInput): Shape {
+            val offset = input.readInt()
+            val kind = Kind.values()[input.readByte().toInt()]
+            val typeName = if (input.readBoolean()) input.readUTF() else null
+            val fields = List(input.readInt()) { input.readUTF() }
+            return Shape(offset, kind, typeName, fields)
+        }
+    }
+
+    override fun getName() = NAME
+
+    override fun getVersion() = LuaLanguage.INDEX_VERSION
+
+    override fun dependsOnFileContent() = true
+
+    override fun getIndexer() = DataIndexer<String, Shape, FileContent> {
+        if (isLargeFile(it.file)) {
+            ShapeScanner(it.contentAsText, it.file.url).scan()
+        } else emptyMap()
+    }
+
+    override fun getInputFilter(): FileBasedIndex.InputFilter {
+        return DefaultFileTypeSpecificInputFilter(LuaFileType.INSTANCE)
+    }
+
+    override fun getKeyDescriptor(): KeyDescriptor<String> = EnumeratorStringDescriptor.INSTANCE
+
+    /**
+     * Tracks block and bracket nesting to find top-level statements and the top-level entries of their table
+     * constructors. Only a handful of recent tokens are retained, so memory use is bounded by the (capped) results.
+     */
+    private class ShapeScanner(private val text: CharSequence, private val fileIdentifier: String) {
+        private class Token(val type: IElementType, val start: Int, val end: Int, val bracketDepth: Int)
+
+        private class ShapeBuilder(val typeName: String, val offset: Int, val kind: Kind, val superClass: String?) {
+            val fields = LinkedHashSet<String>()
+
+            fun add(field: String) {
+                if (fields.size < MAX_FIELDS) {
+                    fields.add(field)
+                }
+            }
+        }
+
+        private val shapes = LinkedHashMap<String, ShapeBuilder>()
+
+        // Top-level local and global table variables, to the shapes of their tables.
+        private val tables = HashMap<String, ShapeBuilder>()
+
+        private var returnedTypeName: String? = null
+        private var returnOffset = 0
+
+        private var blockDepth = 0
+        private var bracketDepth = 0
+
+        // Recent top-level tokens, and tokens within the top-level table constructor being scanned, most recent last.
+        private val recent = ArrayList<Token>()
+        private val tableRecent = ArrayList<Token>()
+
+        private var table: ShapeBuilder? = null
+        private var functionHeader: MutableList<Token>? = null
+
+        // A class declared by the doc comment immediately preceding the current statement.
+        private var pendingClass: ShapeBuilder? = null
+        private var pendingClassTokens = 0
+
+        fun scan(): Map<String, Shape> {
+            val lexer = LuaLexerAdapter()
+            lexer.start(text)
+
+            var count = 0
+
+            while (true) {
+                val type = lexer.tokenType ?: break
+
+                if (type != TokenType.WHITE_SPACE && (type == LuaTypes.DOC_COMMENT || !LuaParserDefinition.COMMENTS.contains(type))) {
+                    process(Token(type, lexer.tokenStart, lexer.tokenEnd, bracketDepth))
+                }
+
+                if (++count % 4096 == 0) {
+                    ProgressManager.checkCanceled()
+                }
+
+                lexer.advance()
+            }
+
+            val result = HashMap<String, Shape>()
+
+            shapes.forEach { (key, builder) ->
+                result[key] = Shape(builder.offset, builder.kind, builder.superClass, builder.fields.toList())
+            }
+
+            returnedTypeName?.let {
+                result[RETURN_KEY] = Shape(returnOffset, Kind.RETURN, it, emptyList())
+            }
+
+            return result
+        }
+
+        private fun tokenText(token: Token): String {
+            return text.substring(token.start, token.end)
+        }
+
+        private fun process(token: Token) {
+            val type = token.type
+            val topLevel = blockDepth == 0 && bracketDepth == 0
+
+            if (type == LuaTypes.DOC_COMMENT) {
+                if (topLevel) {
+                    scanDocComment(token)
+                }
+                return
+            }
+
+            functionHeader?.let { header ->
+                functionHeader = when {
+                    type == LuaTypes.LPAREN -> {
+                        addFunctionField(header)
+                        null
+                    }
+                    header.size < 3 -> {
+                        header.add(token)
+                        header
+                    }
+                    else -> null
+                }
+            }
+
+            if (topLevel) {
+                processTopLevel(token)
+            } else if (table != null && blockDepth == 0 && bracketDepth <= 2) {
+                processTableToken(token)
+            }
+
+            when (type) {
+                LuaTypes.FUNCTION -> {
+                    if (topLevel) {
+                        functionHeader = mutableListOf()
+                    }
+                    blockDepth++
+                }
+                LuaTypes.DO, LuaTypes.IF, LuaTypes.REPEAT -> blockDepth++
+                LuaTypes.END, LuaTypes.UNTIL -> {
+                    if (blockDepth > 0) {
+                        blockDepth--
+                    }
+                }
+                LuaTypes.LPAREN, LuaTypes.LBRACK, LuaTypes.LCURLY -> bracketDepth++
+                LuaTypes.RPAREN, LuaTypes.RBRACK, LuaTypes.RCURLY -> {
+                    if (bracketDepth > 0) {
+                        bracketDepth--
+                    }
+
+                    if (bracketDepth == 0) {
+                        table = null
+                        tableRecent.clear()
+                    }
+                }
+            }
+        }
+
+        private fun scanDocComment(token: Token) {
+            CLASS_TAG_REGEX.findAll(text.subSequence(token.start, token.end)).forEach { match ->
+                val className = match.groupValues[1]
+                val superClass = match.groups[2]?.value
+                val builder = shapes.getOrPut(CLASS_PREFIX + className) {
+                    ShapeBuilder(className, token.start + match.range.first, Kind.CLASS, superClass)
+                }
+
+                pendingClass = builder
+                pendingClassTokens = 0
+            }
+        }
+
+        private fun processTopLevel(token: Token) {
+            when (token.type) {
+                LuaTypes.LCURLY -> startTable(token)
+                LuaTypes.ASSIGN -> {
+                    // t.field = ...
+                    val field = recent.getOrNull(recent.size - 1)
+                    val dot = recent.getOrNull(recent.size - 2)
+                    val owner = recent.getOrNull(recent.size - 3)
+                    val beforeOwner = recent.getOrNull(recent.size - 4)?.type
+
+                    if (field?.type == LuaTypes.ID && dot?.type == LuaTypes.DOT && owner?.type == LuaTypes.ID
+                        && beforeOwner != LuaTypes.DOT && beforeOwner != LuaTypes.COLON) {
+                        tables[tokenText(owner)]?.add(tokenText(field))
+                    }
+                }
+                LuaTypes.ID -> {
+                    // return t
+                    if (recent.lastOrNull()?.type == LuaTypes.RETURN) {
+                        tables[tokenText(token)]?.let {
+                            returnedTypeName = it.typeName
+                            returnOffset = token.start
+                        }
+                    }
+                }
+            }
+
+            recent.add(token)
+
+            if (recent.size > 4) {
+                recent.removeAt(0)
+            }
+
+            if (pendingClass != null && ++pendingClassTokens > 4) {
+                pendingClass = null
+            }
+        }
+
+        private fun startTable(lcurly: Token) {
+            val last = recent.lastOrNull()
+
+            if (last?.type == LuaTypes.RETURN) {
+                val builder = shapes.getOrPut(TABLE_PREFIX + getAnonymousTableName(lcurly)) {
+                    ShapeBuilder(getAnonymousTableName(lcurly), lcurly.start, Kind.TABLE, null)
+                }
+
+                returnedTypeName = builder.typeName
+                returnOffset = last.start
+                beginTable(lcurly, builder)
+                return
+            }
+
+            // [local] name = {
+            val name = recent.getOrNull(recent.size - 2)
+            val beforeName = recent.getOrNull(recent.size - 3)?.type
+
+            if (last?.type != LuaTypes.ASSIGN || name?.type != LuaTypes.ID || beforeName == LuaTypes.DOT || beforeName == LuaTypes.COLON) {
+                return
+            }
+
+            val variableName = tokenText(name)
+            val builder = pendingClass ?: if (beforeName == LuaTypes.LOCAL) {
+                val typeName = getAnonymousTableName(lcurly)
+                shapes.getOrPut(TABLE_PREFIX + typeName) { ShapeBuilder(typeName, lcurly.start, Kind.TABLE, null) }
+            } else {
+                val typeName = getGlobalTypeName(variableName)
+                shapes.getOrPut(TABLE_PREFIX + typeName) { ShapeBuilder(typeName, name.start, Kind.TABLE, null) }
+            }
+
+            tables[variableName] = builder
+            beginTable(lcurly, builder)
+        }
+
+        private fun beginTable(lcurly: Token, builder: ShapeBuilder) {
+            table = builder
+            tableRecent.clear()
+            tableRecent.add(Token(lcurly.type, lcurly.start, lcurly.end, 1))
+        }
+
+        private fun processTableToken(token: Token) {
+            val builder = table ?: return
+
+            if (token.type == LuaTypes.ASSIGN && token.bracketDepth == 1) {
+                findTableKey()?.let { builder.add(it) }
+            }
+
+            tableRecent.add(token)
+
+            if (tableRecent.size > 5) {
+                tableRecent.removeAt(0)
+            }
+        }
+
+        private fun isTableSeparator(token: Token?): Boolean {
+            return token != null && token.bracketDepth == 1
+                    && (token.type == LuaTypes.LCURLY || token.type == LuaTypes.COMMA || token.type == LuaTypes.SEMI)
+        }
+
+        private fun findTableKey(): String? {
+            val size = tableRecent.size
+            val key = tableRecent.getOrNull(size - 1) ?: return null
+
+            // name = value
+            if (key.type == LuaTypes.ID && key.bracketDepth == 1 && isTableSeparator(tableRecent.getOrNull(size - 2))) {
+                return tokenText(key)
+            }
+
+            // ["name"] = value
+            val string = tableRecent.getOrNull(size - 2)
+            val lbrack = tableRecent.getOrNull(size - 3)
+
+            if (key.type == LuaTypes.RBRACK && string?.type == LuaTypes.STRING && lbrack?.type == LuaTypes.LBRACK
+                && lbrack.bracketDepth == 1 && isTableSeparator(tableRecent.getOrNull(size - 4))) {
+                return LuaString.getContent(tokenText(string)).value
+            }
+
+            return null
+        }
+
+        private fun addFunctionField(header: List<Token>) {
+            // function t.field() or function t:field()
+            if (header.size == 3 && header[0].type == LuaTypes.ID && header[2].type == LuaTypes.ID
+                && (header[1].type == LuaTypes.DOT || header[1].type == LuaTypes.COLON)) {
+                tables[tokenText(header[0])]?.add(tokenText(header[2]))
+            }
+        }
+
+        private fun getAnonymousTableName(lcurly: Token): String {
+            return "table@$fileIdentifier:${lcurly.start}"
+        }
+    }
+}
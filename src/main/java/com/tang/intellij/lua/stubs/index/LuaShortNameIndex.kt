@@ -16,9 +16,15 @@
 
 package com.tang.intellij.lua.stubs.index
 
+import com.intellij.openapi.project.Project
 import com.intellij.psi.NavigatablePsiElement
+import com.intellij.psi.search.GlobalSearchScope
 import com.intellij.psi.stubs.StringStubIndexExtension
+import com.intellij.psi.stubs.StubIndex
+import com.intellij.util.Processor
+import com.intellij.util.indexing.IdFilter
 import com.tang.intellij.lua.lang.LuaLanguage
+import com.tang.intellij.lua.search.InferDependencies
 import com.tang.intellij.lua.search.SearchContext
 
 /**
@@ -40,8 +46,20 @@ class LuaShortNameIndex : StringStubIndexExtension<NavigatablePsiElement>() {
             return if (context.isDumb) {
                 emptyList()
             } else {
+                InferDependencies.record(StubKeys.SHORT_NAME, key)
                 instance.get(key, context.project, context.scope)
             }
         }
+
+        /**
+         * Processes the short names declared in files within [scope], as they're read from the index.
+         */
+        fun processKeys(scope: GlobalSearchScope, idFilter: IdFilter?, processor: Processor<in String>): Boolean {
+            return StubIndex.getInstance().processAllKeys(StubKeys.SHORT_NAME, processor, scope, idFilter)
+        }
+
+        fun processElements(key: String, project: Project, scope: GlobalSearchScope, idFilter: IdFilter?, processor: Processor<in NavigatablePsiElement>): Boolean {
+            return StubIndex.getInstance().processElements(StubKeys.SHORT_NAME, key, project, scope, idFilter, NavigatablePsiElement::class.java, processor)
+        }
     }
 }
@@ -16,8 +16,17 @@
 
 package com.tang.intellij.lua.stubs.index
 
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.util.Key
+import com.intellij.openapi.util.ModificationTracker
+import com.intellij.psi.TokenType
 import com.intellij.psi.search.GlobalSearchScope
-import com.intellij.psi.util.PsiTreeUtil
+import com.intellij.psi.search.ProjectAndLibrariesScope
+import com.intellij.psi.tree.IElementType
+import com.intellij.psi.util.CachedValue
+import com.intellij.psi.util.CachedValueProvider
+import com.intellij.psi.util.CachedValuesManager
 import com.intellij.util.Processor
 import com.intellij.util.containers.ContainerUtil
 import com.intellij.util.indexing.*
@@ -26,9 +35,13 @@ import com.intellij.util.io.EnumeratorStringDescriptor
 import com.intellij.util.io.KeyDescriptor
 import com.tang.intellij.lua.lang.LuaFileType
 import com.tang.intellij.lua.lang.LuaLanguage
-import com.tang.intellij.lua.psi.*
+import com.tang.intellij.lua.lang.LuaParserDefinition
+import com.tang.intellij.lua.lang.type.LuaString
+import com.tang.intellij.lua.lexer.LuaLexerAdapter
+import com.tang.intellij.lua.psi.LuaTypes
 import java.io.DataInput
 import java.io.DataOutput
+import java.util.concurrent.ConcurrentHashMap
 
 class LuaStringArgIndex : FileBasedIndexExtension<String, LuaStringArgIndex.LuaCallOccurrence>() {
 
@@ -40,6 +53,46 @@ class LuaStringArgIndex : FileBasedIndexExtension<String, LuaStringArgIndex.LuaC
                 ContainerUtil.process(v.args, processor)
             }, scope)
         }
+
+        private data class ArgKey(val key: String, val argIndex: Int, val includeLibraries: Boolean)
+
+        private val ARG_COUNTS = Key.create<CachedValue<ConcurrentHashMap<ArgKey, Map<String, Int>>>>("lua.call.string.param.counts")
+
+        /**
+         * The number of occurrences of each distinct string passed as argument [argIndex] of calls named [key], within
+         * the project (and optionally libraries). Counts are cached until the index changes.
+         */
+        fun getArgCounts(project: Project, key: String, argIndex: Int, includeLibraries: Boolean): Map<String, Int> {
+            val cache = CachedValuesManager.getManager(project).getCachedValue(project, ARG_COUNTS, {
+                val tracker = ModificationTracker {
+                    FileBasedIndex.getInstance().getIndexModificationStamp(NAME, project)
+                }
+                CachedValueProvider.Result.create(ConcurrentHashMap<ArgKey, Map<String, Int>>(), tracker)
+            }, false)
+
+            val argKey = ArgKey(key, argIndex, includeLibraries)
+
+            cache[argKey]?.let {
+                return it
+            }
+
+            // Counted outside of the map, as counting is cancellable and searches the index, neither of which may happen
+            // whilst the map is locked.
+            val counts = HashMap<String, Int>()
+            val scope = if (includeLibraries) ProjectAndLibrariesScope(project) else GlobalSearchScope.projectScope(project)
+
+            processValues(key, scope) { arg ->
+                ProgressManager.checkCanceled()
+
+                if (arg.argIndex == argIndex) {
+                    counts.merge(arg.argString, 1, Int::plus)
+                }
+
+                true
+            }
+
+            return cache.putIfAbsent(argKey, counts) ?: counts
+        }
     }
 
     override fun getValueExternalizer() = object : DataExternalizer<LuaCallOccurrence> {
@@ -72,22 +125,7 @@ class LuaStringArgIndex : FileBasedIndexExtension<String, LuaStringArgIndex.LuaC
     override fun dependsOnFileContent() = true
 
     override fun getIndexer() = DataIndexer<String, LuaCallOccurrence, FileContent> {
-        val map = mutableMapOf<String, LuaCallOccurrence>()
-        PsiTreeUtil.findChildrenOfType(it.psiFile, LuaCallExpr::class.java).forEach { call ->
-            val isColon = call.isMethodColonCall
-            call.argList.forEachIndexed { index, arg ->
-                val name = call.expression.name
-                if (name != null && arg is LuaLiteralExpr && arg.kind == LuaLiteralKind.String) {
-                    val sv = arg.stringValue
-                    if (sv.length in 2..1024) {
-                        val offset = arg.node.startOffset
-                        val occ = map.getOrPut(name) { LuaCallOccurrence(mutableListOf()) }
-                        occ.args.add(LuaCallArg(if (isColon) index + 1 else index, sv, offset))
-                    }
-                }
-            }
-        }
-        map
+        CallArgScanner(it.contentAsText).scan()
     }
 
     override fun getInputFilter(): FileBasedIndex.InputFilter {
@@ -99,4 +137,119 @@ class LuaStringArgIndex : FileBasedIndexExtension<String, LuaStringArgIndex.LuaC
     data class LuaCallOccurrence(val args: MutableList<LuaCallArg>)
 
     data class LuaCallArg(val argIndex: Int, val argString: String, val offset: Int)
+
+    /**
+     * Finds string literal arguments of calls to named functions/methods with a single pass of the lexer, so that
+     * indexing doesn't need to build (or even parse) PSI.
+     *
+     * A call's name is that of the name or index expression immediately preceding its arguments, and only arguments
+     * consisting of a single string literal token are recorded, as per the PSI (`call.expression.name`, and
+     * `LuaLiteralExpr` arguments) of the call.
+     */
+    private class CallArgScanner(private val text: CharSequence) {
+        private class CallFrame(val name: String, val colon: Boolean) {
+            var argIndex = 0
+            var argTokenCount = 0
+            var stringOffset = -1
+            var stringEnd = -1
+        }
+
+        private class Token(val type: IElementType, val start: Int, val end: Int)
+
+        private val occurrences = mutableMapOf<String, LuaCallOccurrence>()
+
+        // Open brackets, with a frame for those that are the argument list of a named call.
+        private val brackets = ArrayList<CallFrame?>()
+
+        // The most recent significant tokens, most recent first.
+        private val previous = arrayOfNulls<Token>(3)
+
+        fun scan(): Map<String, LuaCallOccurrence> {
+            val lexer = LuaLexerAdapter()
+            lexer.start(text)
+
+            while (true) {
+                val type = lexer.tokenType ?: break
+
+                if (type != TokenType.WHITE_SPACE && !LuaParserDefinition.COMMENTS.contains(type)) {
+                    process(Token(type, lexer.tokenStart, lexer.tokenEnd))
+                }
+
+                lexer.advance()
+            }
+
+            return occurrences
+        }
+
+        private fun process(token: Token) {
+            val frame = brackets.lastOrNull()
+
+            if (frame != null && token.type != LuaTypes.COMMA && token.type != LuaTypes.RPAREN) {
+                if (++frame.argTokenCount == 1 && token.type == LuaTypes.STRING) {
+                    frame.stringOffset = token.start
+                    frame.stringEnd = token.end
+                }
+            }
+
+            when (token.type) {
+                LuaTypes.LPAREN -> brackets.add(createCallFrame())
+                LuaTypes.LBRACK, LuaTypes.LCURLY -> brackets.add(null)
+                LuaTypes.COMMA -> frame?.let { endArg(it) }
+                LuaTypes.RPAREN, LuaTypes.RBRACK, LuaTypes.RCURLY -> {
+                    if (brackets.isNotEmpty()) {
+                        brackets.removeAt(brackets.lastIndex)?.let { endArg(it) }
+                    }
+                }
+                LuaTypes.STRING -> {
+                    // A call with a single string argument i.e. `f "string"`
+                    createCallFrame()?.let {
+                        add(it, 0, token.start, token.end)
+                    }
+                }
+            }
+
+            previous[2] = previous[1]
+            previous[1] = previous[0]
+            previous[0] = token
+        }
+
+        private fun createCallFrame(): CallFrame? {
+            val last = previous[0] ?: return null
+
+            return when (last.type) {
+                LuaTypes.ID -> CallFrame(text.substring(last.start, last.end), previous[1]?.type == LuaTypes.COLON)
+                LuaTypes.RBRACK -> {
+                    // t["name"](...)
+                    val key = previous[1]
+
+                    if (key?.type == LuaTypes.STRING && previous[2]?.type == LuaTypes.LBRACK) {
+                        CallFrame(LuaString.getContent(text.substring(key.start, key.end)).value, false)
+                    } else null
+                }
+                else -> null
+            }
+        }
+
+        private fun endArg(frame: CallFrame) {
+            if (frame.argTokenCount == 1 && frame.stringOffset >= 0) {
+                add(frame, frame.argIndex, frame.stringOffset, frame.stringEnd)
+            }
+
+            if (frame.argTokenCount > 0) {
+                frame.argIndex++
+            }
+
+            frame.argTokenCount = 0
+            frame.stringOffset = -1
+        }
+
+        private fun add(frame: CallFrame, index: Int, start: Int, end: Int) {
+            val value = LuaString.getContent(text.substring(start, end)).value
+
+            if (value.length in 2..1024) {
+                val occurrence = occurrences.getOrPut(frame.name) { LuaCallOccurrence(mutableListOf()) }
+                occurrence.args.add(LuaCallArg(if (frame.colon) index + 1 else index, value, start))
+            }
+        }
+    }
 }
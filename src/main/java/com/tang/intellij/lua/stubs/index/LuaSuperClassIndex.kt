@@ -23,6 +23,7 @@ import com.intellij.psi.stubs.StubIndex
 import com.intellij.util.Processor
 import com.intellij.util.containers.ContainerUtil
 import com.tang.intellij.lua.comment.psi.LuaDocTagClass
+import com.tang.intellij.lua.search.InferDependencies
 
 /**
  *
@@ -35,6 +36,7 @@ class LuaSuperClassIndex : StringStubIndexExtension<LuaDocTagClass>() {
         val instance = LuaSuperClassIndex()
 
         fun process(s: String, project: Project, scope: GlobalSearchScope, processor: Processor<LuaDocTagClass>): Boolean {
+            InferDependencies.record(StubKeys.SUPER_CLASS, s)
             val c = StubIndex.getElements(StubKeys.SUPER_CLASS, s, project, scope, LuaDocTagClass::class.java)
             return ContainerUtil.process(c, processor)
         }
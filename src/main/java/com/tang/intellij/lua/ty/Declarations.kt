@@ -21,9 +21,11 @@ import com.tang.intellij.lua.Constants
 import com.tang.intellij.lua.comment.psi.LuaDocTagField
 import com.tang.intellij.lua.ext.recursionGuard
 import com.tang.intellij.lua.psi.*
+import com.tang.intellij.lua.search.InferDependencies
 import com.tang.intellij.lua.search.PsiSearchContext
 import com.tang.intellij.lua.search.SearchContext
 import com.tang.intellij.lua.search.withRecursionGuard
+import com.tang.intellij.lua.stubs.index.LuaLargeFileIndex
 
 fun infer(context: SearchContext, element: LuaPsiTypeGuessable?): ITy? {
     if (element == null)
@@ -223,11 +225,16 @@ fun LuaPsiFile.returnStatement(): LuaReturnStat? {
 }
 
 private fun inferFile(context: SearchContext, file: LuaPsiFile): ITy {
+    InferDependencies.record(InferDependencies.fileKey(file))
+
     return recursionGuard(file, {
         val moduleName = file.getModuleName(context)
         if (moduleName != null)
             TyLazyClass(moduleName)
-        else {
+        else if (file.tooLarger) {
+            // No stubs are built for large files, but their shape is indexed.
+            LuaLargeFileIndex.getReturnTypeName(file)?.let { TyLazyClass(it) } ?: Primitives.UNKNOWN
+        } else {
             file.returnStatement()?.let {
                 context.withIndex(0) { guessReturnType(it, context) }
             } ?: Primitives.VOID
@@ -20,6 +20,7 @@ import com.intellij.codeInspection.ProblemHighlightType
 import com.intellij.psi.PsiElement
 import com.intellij.psi.util.PsiTreeUtil
 import com.tang.intellij.lua.psi.*
+import com.tang.intellij.lua.search.ContravarianceCache
 import com.tang.intellij.lua.search.SearchContext
 import kotlin.contracts.ExperimentalContracts
 import kotlin.contracts.contract
@@ -651,7 +652,9 @@ object ProblemUtil {
     }
 
     fun contravariantOfShape(context: SearchContext, target: ITy, source: ITy, varianceFlags: Int): Boolean {
-        return contravariantOfShape(context, target, source, varianceFlags, null, null, null)
+        return ContravarianceCache.getInstance(context.project).contravariantOf(context, target, source, varianceFlags) {
+            contravariantOfShape(context, target, source, varianceFlags, null, null, null)
+        }
     }
 
     fun unionAwareProblemProcessor(context: SearchContext, ownerTy: ITy, targetTy: ITy, processProblem: ProcessProblem): ProcessProblem {
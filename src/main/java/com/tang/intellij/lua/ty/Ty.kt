@@ -18,6 +18,7 @@ package com.tang.intellij.lua.ty
 
 import com.intellij.codeInspection.ProblemHighlightType
 import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.project.DumbService
 import com.intellij.psi.PsiElement
 import com.intellij.psi.stubs.StubInputStream
 import com.intellij.psi.stubs.StubOutputStream
@@ -32,7 +33,6 @@ import com.tang.intellij.lua.psi.LuaPsiElement
 import com.tang.intellij.lua.psi.LuaTableExpr
 import com.tang.intellij.lua.psi.argList
 import com.tang.intellij.lua.search.SearchContext
-import conditionallyCached
 import kotlin.contracts.ExperimentalContracts
 import kotlin.contracts.contract
 
@@ -541,13 +541,47 @@ fun ITy.matchSignature(context: SearchContext, call: LuaCallExpr, processProblem
     return SignatureMatchResult(null, null, fallbackReturnTy!!)
 }
 
+private class DumbDisplayName(val stamp: Long, val name: String)
+
 abstract class Ty(override val kind: TyKind) : ITy {
 
     final override var flags: Int = 0
 
-    override val displayName by conditionallyCached({ !(this is IPsiTy<*>) || !SearchContext.get(psi.project).isDumb }) {
-        TyRenderer.SIMPLE.render(this)
-    }
+    @Volatile
+    private var renderedDisplayName: String? = null
+
+    @Volatile
+    private var dumbDisplayName: DumbDisplayName? = null
+
+    override val displayName: String
+        get() {
+            renderedDisplayName?.let {
+                return it
+            }
+
+            val project = (this as? IPsiTy<*>)?.psi?.project
+
+            // Whilst indexing, PSI types (e.g. anonymous tables) may render incompletely, so what's rendered is only
+            // reused until dumb mode is next entered or exited.
+            if (project != null && SearchContext.get(project).isDumb) {
+                val stamp = DumbService.getInstance(project).modificationTracker.modificationCount
+
+                dumbDisplayName?.let {
+                    if (it.stamp == stamp) {
+                        return it.name
+                    }
+                }
+
+                return TyRenderer.SIMPLE.render(this).also {
+                    dumbDisplayName = DumbDisplayName(stamp, it)
+                }
+            }
+
+            return TyRenderer.SIMPLE.render(this).also {
+                renderedDisplayName = it
+                dumbDisplayName = null
+            }
+        }
 
     // Lazy initialization because Primitives.TRUE is itself a Ty that needs to be instantiated and refers to itself.
     override val booleanType: ITy by lazy { Primitives.TRUE }
@@ -737,15 +771,23 @@ abstract class Ty(override val kind: TyKind) : ITy {
         }
 
         fun serialize(ty: ITy, stream: StubOutputStream) {
+            TyStubFrame.write(ty, stream)
+        }
+
+        fun deserialize(stream: StubInputStream): ITy {
+            return TyStubFrame.read(stream)
+        }
+
+        internal fun serializeEntry(ty: ITy, stream: StubOutputStream) {
             stream.writeByte(ty.kind.ordinal)
-            stream.writeInt(ty.flags)
+            stream.writeVarInt(ty.flags)
             val serializer = getSerializer(ty.kind)
             serializer?.serialize(ty, stream)
         }
 
-        fun deserialize(stream: StubInputStream): ITy {
+        internal fun deserializeEntry(stream: StubInputStream): ITy {
             val kind = getKind(stream.readByte().toInt())
-            val flags = stream.readInt()
+            val flags = stream.readVarInt()
             return when (kind) {
                 TyKind.Nil -> Primitives.NIL
                 TyKind.Unknown -> Primitives.UNKNOWN
@@ -28,7 +28,7 @@ interface ITyArray : ITy {
 open class TyArray(override val base: ITy) : Ty(TyKind.Array), ITyArray {
 
     override fun equals(other: Any?): Boolean {
-        return other is ITyArray && base == other.base
+        return this === other || (other is ITyArray && base == other.base)
     }
 
     override fun equals(context: SearchContext, other: ITy, equalityFlags: Int): Boolean {
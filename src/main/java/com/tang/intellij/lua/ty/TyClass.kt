@@ -32,10 +32,14 @@ import com.tang.intellij.lua.comment.psi.LuaDocTagField
 import com.tang.intellij.lua.psi.*
 import com.tang.intellij.lua.psi.search.LuaClassInheritorsSearch
 import com.tang.intellij.lua.psi.search.LuaShortNamesManager
+import com.tang.intellij.lua.search.ClassMemberCache
+import com.tang.intellij.lua.search.ContravarianceCache
 import com.tang.intellij.lua.search.ProjectSearchContext
 import com.tang.intellij.lua.search.PsiSearchContext
 import com.tang.intellij.lua.search.SearchContext
 import com.tang.intellij.lua.stubs.*
+import java.util.Collections
+import java.util.IdentityHashMap
 
 
 interface ITyClass : ITyResolvable {
@@ -111,6 +115,12 @@ private fun equalToShape(context: SearchContext, target: ITy, source: ITy): Bool
         return false
     }
 
+    return ContravarianceCache.getInstance(context.project).equalTo(context, target, source) {
+        membersEqual(context, target, source)
+    }
+}
+
+private fun membersEqual(context: SearchContext, target: ITy, source: ITy): Boolean {
     val sourceSubstitutor = source.getMemberSubstitutor(context)
     val targetSubstitutor = target.getMemberSubstitutor(context)
 
@@ -179,8 +189,20 @@ abstract class TyClass(override val className: String,
 
     final override val identifier: String get() = className
 
+    @Volatile
     private var _lazyInitialized: Boolean = false
 
+    /**
+     * A class' definition, as resolved by [doLazyInit].
+     */
+    protected class LazyInitResult(
+        val aliasName: String?,
+        val superClass: ITy?,
+        val params: Array<TyGenericParameter>?,
+        val flags: Int,
+        val signatures: Array<IFunSignature>?
+    )
+
     override fun equals(other: Any?): Boolean {
         return other is ITyClass && other.className == className && other.flags == flags
     }
@@ -244,6 +266,31 @@ abstract class TyClass(override val className: String,
     }
 
     override fun processMembers(context: SearchContext, deep: Boolean, process: ProcessTypeMember): Boolean {
+        // Anonymous classes carry their own hierarchy, so only named classes share a member table.
+        if (deep && context.isProjectCacheable && !isAnonymous && this !is TyGenericParameter) {
+            val memberTable = ClassMemberCache.getInstance(context.project).getMemberTable(className) {
+                mutableListOf<TypeMember>().also { members ->
+                    processClassMembers(context.getProjectContext(), true) { _, member ->
+                        members.add(member)
+                    }
+                }
+            }
+
+            for (member in memberTable) {
+                ProgressManager.checkCanceled()
+
+                if (!process(this, member)) {
+                    return false
+                }
+            }
+
+            return true
+        }
+
+        return processClassMembers(context, deep, process)
+    }
+
+    private fun processClassMembers(context: SearchContext, deep: Boolean, process: ProcessTypeMember): Boolean {
         lazyInit(context)
 
         val clazzName = className
@@ -336,24 +383,51 @@ abstract class TyClass(override val className: String,
     }
 
     override fun lazyInit(searchContext: SearchContext) {
-        if (!_lazyInitialized && !searchContext.isDumb) {
-            _lazyInitialized = true
-            doLazyInit(searchContext)
+        if (_lazyInitialized || searchContext.isDumb) {
+            return
+        }
+
+        val initializingClasses = initializing.get()
+
+        // Resolving a class may lead back to the class itself.
+        if (!initializingClasses.add(this)) {
+            return
+        }
+
+        try {
+            // Resolved without holding the monitor, as resolution may initialize other classes, which other threads may
+            // be initializing in turn. Classes are shared between threads (via caches), so the result is then published
+            // atomically; if threads race, the first result wins.
+            val result = doLazyInit(searchContext)
+
+            synchronized(this) {
+                if (!_lazyInitialized) {
+                    result?.let {
+                        aliasName = it.aliasName
+                        superClass = it.superClass
+                        params = it.params
+                        flags = it.flags
+                        signatures = it.signatures
+                    }
+
+                    _lazyInitialized = true
+                }
+            }
+        } finally {
+            initializingClasses.remove(this)
         }
     }
 
-    open fun doLazyInit(searchContext: SearchContext) {
+    protected open fun doLazyInit(searchContext: SearchContext): LazyInitResult? {
         if (aliasName == null) {
             val classDef = LuaPsiTreeUtil.findClass(searchContext, className)
             if (classDef != null) {
                 val tyClass = classDef.type
-                aliasName = tyClass.aliasName
-                superClass = tyClass.superClass
-                params = tyClass.params
-                flags = tyClass.flags
-                signatures = tyClass.signatures
+                return LazyInitResult(tyClass.aliasName, tyClass.superClass, tyClass.params, tyClass.flags, tyClass.signatures)
             }
         }
+
+        return null
     }
 
     override fun getSuperType(context: SearchContext): ITy? {
@@ -383,6 +457,9 @@ abstract class TyClass(override val className: String,
     }
 
     companion object {
+        // Classes being initialized by the current thread.
+        private val initializing = ThreadLocal.withInitial { Collections.newSetFromMap(IdentityHashMap<TyClass, Boolean>()) }
+
         // for _G
         val G: TyClass = createSerializedClass(Constants.WORD_G)
 
@@ -471,7 +548,7 @@ class TyPsiDocClass(override val psi: LuaDocTagClass) : TyClass(
         return false // Nothing to resolve
     }
 
-    override fun doLazyInit(searchContext: SearchContext) {}
+    override fun doLazyInit(searchContext: SearchContext): LazyInitResult? = null
 }
 
 open class TySerializedClass(name: String,
@@ -505,14 +582,14 @@ open class TySerializedClass(name: String,
 }
 
 class TyLazyClass(name: String, val psi: PsiElement? = null) : TySerializedClass(name, null) {
-    override fun doLazyInit(searchContext: SearchContext) {
+    override fun doLazyInit(searchContext: SearchContext): LazyInitResult? {
         val context = if (psi != null) {
             PsiSearchContext(psi)
         } else {
             ProjectSearchContext(searchContext.project)
         }
 
-        super.doLazyInit(context)
+        return super.doLazyInit(context)
     }
 }
 
@@ -675,7 +752,7 @@ open class TyTable(override val psi: LuaTableExpr, name: String = getTableTypeNa
         return false
     }
 
-    override fun doLazyInit(searchContext: SearchContext) = Unit
+    override fun doLazyInit(searchContext: SearchContext): LazyInitResult? = null
 
     override fun processMembers(context: SearchContext, deep: Boolean, process: ProcessTypeMember): Boolean {
         if (!context.isDumb) {
@@ -781,7 +858,7 @@ open class TyDocTable(override val psi: LuaDocTableDef, name: String = getDocTab
         return false
     }
 
-    override fun doLazyInit(searchContext: SearchContext) = Unit
+    override fun doLazyInit(searchContext: SearchContext): LazyInitResult? = null
 
     override fun processMembers(context: SearchContext, deep: Boolean, process: ProcessTypeMember): Boolean {
         psi.tableFieldList.forEach {
@@ -118,6 +118,10 @@ abstract class FunSignatureBase(override val colonCall: Boolean,
                                 override val genericParams: Array<out TyGenericParameter>? = null
 ) : IFunSignature {
     override fun equals(other: Any?): Boolean {
+        if (this === other) {
+            return true
+        }
+
         if (other is IFunSignature) {
             return colonCall == other.colonCall
                     && params?.let { other.params?.contentEquals(it) ?: false } ?: (other.params == null)
@@ -294,6 +298,17 @@ open class FunSignature(colonCall: Boolean,
                    genericParams: Array<out TyGenericParameter>? = null
 ) : FunSignatureBase(colonCall, params, genericParams) {
 
+    // Racy but benign, as with String.hashCode()
+    private var hashCodeCache = 0
+
+    override fun hashCode(): Int {
+        if (hashCodeCache == 0) {
+            hashCodeCache = super.hashCode()
+        }
+
+        return hashCodeCache
+    }
+
     companion object {
         fun serialize(sig: IFunSignature, stream: StubOutputStream) {
             stream.writeBoolean(sig.colonCall)
@@ -352,6 +367,10 @@ abstract class TyFunction : Ty(TyKind.Function), ITyFunction {
     }
 
     override fun equals(other: Any?): Boolean {
+        if (this === other) {
+            return true
+        }
+
         if (other is ITyFunction) {
             if (mainSignature != other.mainSignature)
                 return false
@@ -83,7 +83,7 @@ class TyGenericParameter(name: String, val scopeName: String?, override val varN
         }
     }
 
-    override fun doLazyInit(searchContext: SearchContext) = Unit
+    override fun doLazyInit(searchContext: SearchContext): LazyInitResult? = null
 
     override fun willResolve(context: SearchContext): Boolean {
         return false
@@ -205,8 +205,15 @@ open class TyGeneric(override val args: Array<out ITy>, override val base: ITy)
             && args.withIndex().all { (index, ty) -> ty.equals(other.args[index]) }
     }
 
+    // Racy but benign, as with String.hashCode()
+    private var hashCodeCache = 0
+
     override fun hashCode(): Int {
-        return args.fold(base.hashCode()) { acc, iTy -> 31 * acc + iTy.hashCode() }
+        if (hashCodeCache == 0) {
+            hashCodeCache = args.fold(base.hashCode()) { acc, iTy -> 31 * acc + iTy.hashCode() }
+        }
+
+        return hashCodeCache
     }
 
     override fun getSuperType(context: SearchContext): ITy? {
@@ -377,7 +384,7 @@ open class TyGeneric(override val args: Array<out ITy>, override val base: ITy)
 object TyGenericSerializer : TySerializer<ITyGeneric>() {
     override fun deserializeTy(flags: Int, stream: StubInputStream): ITyGeneric {
         val base = Ty.deserialize(stream)
-        val size = stream.readByte()
+        val size = stream.readVarInt()
         val params = mutableListOf<ITy>()
         for (i in 0 until size) {
             params.add(Ty.deserialize(stream))
@@ -387,7 +394,7 @@ object TyGenericSerializer : TySerializer<ITyGeneric>() {
 
     override fun serializeTy(ty: ITyGeneric, stream: StubOutputStream) {
         Ty.serialize(ty.base, stream)
-        stream.writeByte(ty.args.size)
+        stream.writeVarInt(ty.args.size)
         ty.args.forEach { Ty.serialize(it, stream) }
     }
 }
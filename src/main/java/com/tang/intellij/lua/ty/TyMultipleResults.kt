@@ -289,7 +289,7 @@ class TyMultipleResults : Ty {
 
 object TyMultipleResultsSerializer : TySerializer<TyMultipleResults>() {
     override fun deserializeTy(flags: Int, stream: StubInputStream): TyMultipleResults {
-        val size = stream.readByte().toInt()
+        val size = stream.readVarInt()
         val list = mutableListOf<ITy>()
         for (i in 0 until size) list.add(Ty.deserialize(stream))
         val variadic = stream.readBoolean()
@@ -297,7 +297,7 @@ object TyMultipleResultsSerializer : TySerializer<TyMultipleResults>() {
     }
 
     override fun serializeTy(ty: TyMultipleResults, stream: StubOutputStream) {
-        stream.writeByte(ty.list.size)
+        stream.writeVarInt(ty.list.size)
         ty.list.forEach { Ty.serialize(it, stream) }
         stream.writeBoolean(ty.variadic)
     }
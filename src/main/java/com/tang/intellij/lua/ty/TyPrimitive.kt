@@ -93,7 +93,7 @@ open class TyPrimitiveClass(override val primitiveKind: TyPrimitiveKind,
 
     override fun getSuperType(context: SearchContext): ITy? = null
 
-    override fun doLazyInit(searchContext: SearchContext) { }
+    override fun doLazyInit(searchContext: SearchContext): LazyInitResult? = null
 
     override fun accept(visitor: ITyVisitor) {
         visitor.visitTy(this)
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.lua.ty
+
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream
+import com.intellij.psi.stubs.StubInputStream
+import com.intellij.psi.stubs.StubOutputStream
+import com.intellij.util.io.AbstractStringEnumerator
+import com.intellij.util.io.StringRef
+import java.io.ByteArrayInputStream
+import java.io.InputStream
+import java.io.OutputStream
+
+/**
+ * Frames the types (and signatures) written into stubs, so that they can be decoded lazily.
+ *
+ * A type written to a stub stream is framed as the names it refers to, followed by the length of its encoding and the
+ * encoding itself. Constituent types are encoded inline within their parent's frame, so each frame's header is only a
+ * couple of varints, plus a name id per distinct name. The names are written through the stub stream, so they're
+ * enumerated by the platform along with the stub tree's other names, and the encoding refers to them by their index in
+ * the frame.
+ *
+ * Frames are self-contained, as the platform may serialize and deserialize a file's stubs individually, and in any order.
+ *
+ * When read, a frame is retained as raw bytes, and only decoded when first needed. This allows stubs to defer decoding
+ * their types (and signatures) until they're first accessed, see [readLazy], so index lookups that only need names never
+ * decode types at all.
+ */
+internal object TyStubFrame {
+    private val NULL_TY: Lazy<ITy?> = lazyOf(null)
+
+    /**
+     * Enumerates the names written within a single frame. Ids are 1-based, as 0 is reserved for null by
+     * [StubOutputStream].
+     */
+    private class FrameNames(names: List<String> = emptyList()) : AbstractStringEnumerator {
+        val names = ArrayList(names)
+        private val ids = HashMap<String, Int>()
+
+        override fun enumerate(value: String?): Int {
+            if (value == null) {
+                return 0
+            }
+
+            return ids.getOrPut(value) {
+                names.add(value)
+                names.size
+            }
+        }
+
+        override fun valueOf(idx: Int): String? {
+            return if (idx == 0) null else names.getOrNull(idx - 1) ?: throw IllegalStateException("Unknown name id $idx")
+        }
+
+        override fun markCorrupted() {}
+
+        override fun isDirty(): Boolean {
+            return false
+        }
+
+        override fun force() {}
+
+        override fun close() {}
+    }
+
+    private class Frame(private val names: List<String>, private val bytes: ByteArray) {
+        fun <T> decode(read: (StubInputStream) -> T): T {
+            return read(FrameInputStream(ByteArrayInputStream(bytes), FrameNames(names)))
+        }
+    }
+
+    private class FrameOutputStream(out: OutputStream, names: FrameNames) : StubOutputStream(out, names)
+
+    private class FrameInputStream(input: InputStream, names: FrameNames) : StubInputStream(input, names)
+
+    fun write(ty: ITy, stream: StubOutputStream) {
+        writeFrame(stream) { Ty.serializeEntry(ty, it) }
+    }
+
+    /**
+     * Writes [signatures] as a single frame, so that they can be read with [readSignaturesLazy].
+     */
+    fun writeSignatures(signatures: Array<out IFunSignature>, stream: StubOutputStream) {
+        writeFrame(stream) { frameStream ->
+            frameStream.writeVarInt(signatures.size)
+            signatures.forEach { FunSignature.serialize(it, frameStream) }
+        }
+    }
+
+    fun read(stream: StubInputStream): ITy {
+        return if (stream is FrameInputStream) Ty.deserializeEntry(stream) else readFrame(stream).decode { Ty.deserializeEntry(it) }
+    }
+
+    /**
+     * Reads a type written by [write], deferring decoding until the returned value is first accessed. Until then, the
+     * value captures only the frame of this type, and once decoded, only the type.
+     */
+    fun readLazy(stream: StubInputStream): Lazy<ITy> {
+        return readLazy(stream) { Ty.deserializeEntry(it) }
+    }
+
+    /**
+     * As [readLazy], for a type written by [com.tang.intellij.lua.stubs.writeTyNullable].
+     */
+    fun readNullableLazy(stream: StubInputStream): Lazy<ITy?> {
+        return if (stream.readBoolean()) readLazy(stream) else NULL_TY
+    }
+
+    /**
+     * As [readLazy], for signatures written by [writeSignatures].
+     */
+    fun readSignaturesLazy(stream: StubInputStream): Lazy<Array<IFunSignature>> {
+        return readLazy(stream) { frameStream ->
+            Array<IFunSignature>(frameStream.readVarInt()) { FunSignature.deserialize(frameStream) }
+        }
+    }
+
+    private fun <T> readLazy(stream: StubInputStream, read: (StubInputStream) -> T): Lazy<T> {
+        // Within a frame, the value is encoded inline, so must be read now to consume it.
+        if (stream is FrameInputStream) {
+            return lazyOf(read(stream))
+        }
+
+        val frame = readFrame(stream)
+        return lazy(LazyThreadSafetyMode.PUBLICATION) { frame.decode(read) }
+    }
+
+    private fun writeFrame(stream: StubOutputStream, write: (StubOutputStream) -> Unit) {
+        if (stream is FrameOutputStream) {
+            write(stream)
+            return
+        }
+
+        val bytes = BufferExposingByteArrayOutputStream()
+        val names = FrameNames()
+
+        write(FrameOutputStream(bytes, names))
+
+        stream.writeVarInt(names.names.size)
+        names.names.forEach { stream.writeName(it) }
+        stream.writeVarInt(bytes.size())
+        stream.write(bytes.internalBuffer, 0, bytes.size())
+    }
+
+    private fun readFrame(stream: StubInputStream): Frame {
+        val names = List(stream.readVarInt()) { StringRef.toString(stream.readName()) }
+        val bytes = ByteArray(stream.readVarInt())
+        stream.readFully(bytes)
+        return Frame(names, bytes)
+    }
+}
@@ -26,27 +26,39 @@ import kotlin.contracts.contract
 private val displayNameComparator: Comparator<ITy> = Comparator { a, b -> a.displayName.compareTo(b.displayName) }
 
 class TyUnion : Ty {
-    private val childSet: LinkedHashSet<ITy>
+    // Unordered, the canonical (display name) order is only computed if the children are iterated.
+    internal val childTys: Set<ITy>
 
-    private constructor(childSet: LinkedHashSet<ITy>) : super(TyKind.Union) {
-        if (childSet.size < 2) {
-            throw IllegalArgumentException("Unions must contain two or more types. ${childSet.size} were provided.")
+    private val childSet: LinkedHashSet<ITy> by lazy {
+        linkedSetOf<ITy>().apply { addAll(childTys.sortedWith(displayNameComparator)) }
+    }
+
+    // Whether the children were reduced by a Builder i.e. no child is covariant of another.
+    private val reduced: Boolean
+
+    private val childHashCode: Int
+
+    private constructor(childTys: Set<ITy>, reduced: Boolean) : super(TyKind.Union) {
+        if (childTys.size < 2) {
+            throw IllegalArgumentException("Unions must contain two or more types. ${childTys.size} were provided.")
         }
 
-        this.childSet = childSet
+        this.childTys = childTys
+        this.reduced = reduced
+        this.childHashCode = childTys.hashCode()
     }
 
-    constructor(childTys: Collection<ITy>) : this(linkedSetOf<ITy>().apply { addAll(childTys.sortedWith(displayNameComparator)) })
+    constructor(childTys: Collection<ITy>) : this(LinkedHashSet(childTys), false)
 
     fun getChildTypes() = childSet
 
     val size:Int
-        get() = childSet.size
+        get() = childTys.size
 
     override val booleanType: ITy
         get() {
             var resolvedType: ITy? = null
-            childSet.forEach {
+            childTys.forEach {
                 when (it.booleanType) {
                     Primitives.TRUE -> {
                         if (resolvedType == Primitives.FALSE) return Primitives.BOOLEAN
@@ -65,34 +77,29 @@ class TyUnion : Ty {
     override fun union(context: SearchContext, ty: ITy): ITy {
         if (ty is TyVoid) {
             return this
-        } else if (ty.isUnknown && childSet.find { it is TyMultipleResults } == null) {
+        } else if (ty.isUnknown && childTys.find { it is TyMultipleResults } == null) {
             return Primitives.UNKNOWN
         }
 
-        val unionTys = mutableListOf<ITy>()
-        unionTys.addAll(childSet)
+        val builder = Builder(context)
 
-        if (ty is TyUnion) {
-            unionTys.addAll(ty.childSet)
-        } else {
-            unionTys.add(ty)
-        }
-
-        return TyUnion.union(context, unionTys)
+        builder.add(this)
+        builder.add(ty)
+        return builder.build()
     }
 
     override fun not(context: SearchContext, ty: ITy): ITy {
-        val resultantChildTys = ArrayList<ITy>(childSet.size)
+        val resultantChildTys = ArrayList<ITy>(childTys.size)
         var altered = false
 
-        childSet.forEach { childTy ->
+        childTys.forEach { childTy ->
             val resultantChildTy = childTy.not(context, ty)
 
             if (resultantChildTy !== childTy) {
                 altered = true
 
                 if (resultantChildTy is TyUnion) {
-                    resultantChildTys.addAll(resultantChildTy.childSet)
+                    resultantChildTys.addAll(resultantChildTy.childTys)
                 } else {
                     resultantChildTys.add(resultantChildTy)
                 }
@@ -110,12 +117,12 @@ class TyUnion : Ty {
 
     override fun contravariantOf(context: SearchContext, other: ITy, varianceFlags: Int): Boolean {
         return super.contravariantOf(context, other, varianceFlags)
-                || childSet.any { type -> type.contravariantOf(context, other, varianceFlags) }
+                || childTys.any { type -> type.contravariantOf(context, other, varianceFlags) }
     }
 
     override fun substitute(context: SearchContext, substitutor: ITySubstitutor): ITy {
         var substituted = false
-        val substitutedChildren = childSet.map {
+        val substitutedChildren = childTys.map {
             val substitutedChild = it.substitute(context, substitutor)
 
             if (substitutedChild !== it) {
@@ -151,13 +158,13 @@ class TyUnion : Ty {
     }
 
     override fun guessMemberType(context: SearchContext, name: String): ITy? {
-        return childSet.reduce<ITy?, ITy?> { ty, childTy ->
+        return childTys.reduce<ITy?, ITy?> { ty, childTy ->
             TyUnion.union(context, ty, childTy?.guessMemberType(context, name))
         }
     }
 
     override fun guessIndexerType(context: SearchContext, indexTy: ITy, exact: Boolean): ITy? {
-        return childSet.reduce<ITy?, ITy?> { ty, childTy ->
+        return childTys.reduce<ITy?, ITy?> { ty, childTy ->
             TyUnion.union(context, ty, childTy?.guessIndexerType(context, indexTy, exact))
         }
     }
@@ -171,24 +178,24 @@ class TyUnion : Ty {
     }
 
     override fun equals(context: SearchContext, other: ITy, equalityFlags: Int): Boolean {
-        val resolvedTy = childSet.reduce { resolved, ty ->
+        val resolvedTy = childTys.reduce { resolved, ty ->
             resolved.union(context, Ty.resolve(context, ty))
         }
 
         val otherResolvedTy = Ty.resolve(context, other).let {
             if (it is TyUnion) {
-                it.childSet.reduce { resolved, ty ->
+                it.childTys.reduce { resolved, ty ->
                     resolved.union(context, Ty.resolve(context, ty))
                 }
             } else it
         }
 
         val resolvedSet = if (resolvedTy is TyUnion) {
-            resolvedTy.childSet
+            resolvedTy.childTys
         } else setOf(resolvedTy)
 
         val resolvedOtherSet = if (otherResolvedTy is TyUnion) {
-            otherResolvedTy.childSet
+            otherResolvedTy.childTys
         } else setOf(otherResolvedTy)
 
         if (resolvedSet.size == resolvedOtherSet.size) {
@@ -207,13 +214,115 @@ class TyUnion : Ty {
     }
 
     override fun equals(other: Any?): Boolean {
-        return other is TyUnion && childSet.equals(other.childSet)
+        return other is TyUnion && childHashCode == other.childHashCode && childTys == other.childTys
     }
 
     override fun hashCode(): Int {
-        var code = 0
-        childSet.forEach { code = code * 31 + it.hashCode() }
-        return code
+        return childHashCode
+    }
+
+    /**
+     * Reduces types to a union in which no child is covariant of another.
+     *
+     * Primitives, primitive literals and nil are deduplicated by hash, and a literal is subsumed by exactly its primitive
+     * type (e.g. string subsumes all string literals), which is what a variance check would conclude. Only the remaining
+     * types are checked pairwise, after first discarding exact duplicates by hash. Children of a union that was itself
+     * built by a builder are known to be reduced, so are adopted without being checked against one another again.
+     */
+    private class Builder(private val context: SearchContext) {
+        private val simpleTys = HashSet<ITy>()
+        private val complexTys = LinkedHashSet<ITy>()
+
+        private fun isSimple(ty: ITy): Boolean {
+            return ty is TyPrimitiveLiteral || ty is TyPrimitive || ty === Primitives.STRING || ty is TyNil
+        }
+
+        private fun isCovariant(target: ITy, ty: ITy): Boolean {
+            return recursionGuard(target, {
+                target.contravariantOf(context, ty, VARIANCE_FLAGS)
+            }) ?: false
+        }
+
+        fun add(ty: ITy) {
+            if (ty is TyUnion) {
+                if (ty.reduced && simpleTys.isEmpty() && complexTys.isEmpty()) {
+                    ty.childTys.forEach {
+                        if (isSimple(it)) {
+                            simpleTys.add(it)
+                        } else {
+                            complexTys.add(it)
+                        }
+                    }
+                } else {
+                    ty.childTys.forEach { addChild(it) }
+                }
+            } else if (ty != Primitives.VOID) {
+                addChild(ty)
+            }
+        }
+
+        private fun addChild(ty: ITy) {
+            if (isSimple(ty)) {
+                addSimple(ty)
+            } else {
+                addComplex(ty)
+            }
+        }
+
+        private fun addSimple(ty: ITy) {
+            if (simpleTys.contains(ty)
+                || (ty is TyPrimitiveLiteral && simpleTys.contains(ty.primitiveType))
+                || complexTys.any { isCovariant(it, ty) }
+            ) {
+                return
+            }
+
+            if (ty == Primitives.TRUE || ty == Primitives.FALSE) {
+                if (simpleTys.remove(if (ty == Primitives.TRUE) Primitives.FALSE else Primitives.TRUE)) {
+                    addSimple(Primitives.BOOLEAN)
+                    return
+                }
+            } else if (ty is ITyPrimitive) {
+                simpleTys.removeIf { it is TyPrimitiveLiteral && it.primitiveType == ty }
+            }
+
+            complexTys.removeIf { isCovariant(ty, it) }
+            simpleTys.add(ty)
+        }
+
+        private fun addComplex(ty: ITy) {
+            if (complexTys.contains(ty)
+                || simpleTys.contains(ty)
+                || simpleTys.any { isCovariant(it, ty) }
+                || complexTys.any { isCovariant(it, ty) }
+            ) {
+                return
+            }
+
+            simpleTys.removeIf { isCovariant(ty, it) }
+
+            complexTys.removeIf { isCovariant(ty, it) }
+            complexTys.add(ty)
+        }
+
+        fun build(): ITy {
+            val size = simpleTys.size + complexTys.size
+
+            return when {
+                size == 0 -> Primitives.VOID
+                size == 1 -> simpleTys.firstOrNull() ?: complexTys.first()
+                else -> {
+                    val childTys = HashSet<ITy>(simpleTys.size + complexTys.size)
+                    childTys.addAll(simpleTys)
+                    childTys.addAll(complexTys)
+                    TyUnion(childTys, true)
+                }
+            }
+        }
+
+        companion object {
+            private const val VARIANCE_FLAGS = TyVarianceFlags.STRICT_NIL or TyVarianceFlags.STRICT_UNKNOWN or TyVarianceFlags.NON_STRUCTURAL
+        }
     }
 
     companion object {
@@ -294,60 +403,9 @@ class TyUnion : Ty {
         }
 
         fun union(context: SearchContext, tys: Iterable<ITy>): ITy {
-            val expandedTys = mutableListOf<ITy>()
-
-            tys.forEach {
-                if (it is TyUnion) {
-                    expandedTys.addAll(it.childSet)
-                } else if (it != Primitives.VOID) {
-                    expandedTys.add(it)
-                }
-            }
-
-            if (expandedTys.size == 0) {
-                return Primitives.VOID
-            }
-
-            val childSet = sortedSetOf(displayNameComparator)
-
-            expandedTys.forEach {
-                val varianceFlags = TyVarianceFlags.STRICT_NIL or TyVarianceFlags.STRICT_UNKNOWN or TyVarianceFlags.NON_STRUCTURAL
-                val covariant = childSet.contains(it) || childSet.find { childTy ->
-                    recursionGuard(childTy, {
-                        childTy.contravariantOf(context, it, varianceFlags)
-                    }) ?: false
-                } != null
-
-                if (!covariant) {
-                    if (it == Primitives.TRUE) {
-                        if (childSet.remove(Primitives.FALSE)) {
-                            childSet.add(Primitives.BOOLEAN)
-                        } else {
-                            childSet.add(Primitives.TRUE)
-                        }
-                    } else if (it == Primitives.FALSE) {
-                        if (childSet.remove(Primitives.TRUE)) {
-                            childSet.add(Primitives.BOOLEAN)
-                        } else {
-                            childSet.add(Primitives.FALSE)
-                        }
-                    } else {
-                        childSet.removeIf { childTy ->
-                            recursionGuard(childTy, {
-                                it.contravariantOf(context, childTy, varianceFlags)
-                            }) ?: false
-                        }
-
-                        childSet.add(it)
-                    }
-                }
-            }
-
-            return if (childSet.size == 1) {
-                childSet.first()
-            } else {
-                TyUnion(childSet)
-            }
+            val builder = Builder(context)
+            tys.forEach { builder.add(it) }
+            return builder.build()
         }
 
         fun getPerfectClass(ty: ITy): ITyClass? {
@@ -369,12 +427,12 @@ class TyUnion : Ty {
 
 object TyUnionSerializer : TySerializer<TyUnion>() {
     override fun serializeTy(ty: TyUnion, stream: StubOutputStream) {
-        stream.writeInt(ty.size)
+        stream.writeVarInt(ty.size)
         TyUnion.each(ty) { Ty.serialize(it, stream) }
     }
 
     override fun deserializeTy(flags: Int, stream: StubInputStream): TyUnion {
-        val size = stream.readInt()
+        val size = stream.readVarInt()
         val tys = ArrayList<ITy>(size)
 
         for (i in 0 until size) {
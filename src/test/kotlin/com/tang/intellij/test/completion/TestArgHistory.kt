@@ -33,4 +33,29 @@ class TestArgHistory : TestCompletionBase() {
         }
     }
 
+    fun `test arg history frequency`() {
+        doTest("""
+            --- test_arg_history_frequency.lua
+
+            local function test(strArg1, strArg2)
+            end
+
+            test("his1")
+            test("his2")
+            test("his3")
+            test("his2")
+            test("his1")
+            test("his2")
+            test("--[[caret]]")
+        """) {
+            // Each string is suggested once, however often it was passed, with the most frequent first.
+            listOf("his1", "his2", "his3").forEach { arg ->
+                assertEquals(1, it.count { s -> s == arg })
+            }
+
+            assertTrue(it.indexOf("his2") < it.indexOf("his1"))
+            assertTrue(it.indexOf("his1") < it.indexOf("his3"))
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.test.psi
+
+import com.intellij.openapi.command.WriteCommandAction
+import com.intellij.psi.PsiDocumentManager
+import com.intellij.psi.PsiFile
+import com.intellij.psi.PsiFileFactory
+import com.intellij.psi.SyntaxTraverser
+import com.tang.intellij.lua.lang.LuaFileType
+import com.tang.intellij.lua.psi.LuaDeclarationTree
+import com.tang.intellij.lua.psi.LuaExpression
+import com.tang.intellij.lua.psi.LuaIndexExpr
+import com.tang.intellij.lua.psi.LuaNameExpr
+import com.tang.intellij.test.LuaTestBase
+
+/**
+ * Edits files whose declaration trees have already been built, and checks that the incrementally updated tree resolves
+ * names (and lists the declarations visible to them, as local completion does) exactly as a fully rebuilt tree would.
+ */
+class DeclarationTreeTest : LuaTestBase() {
+    /**
+     * Describes, for each name and index expression in [file], the declaration it resolves to and the declarations
+     * visible from it.
+     */
+    private fun describe(file: PsiFile): List<String> {
+        val tree = LuaDeclarationTree.get(file)
+
+        return SyntaxTraverser.psiTraverser(file).filter(LuaExpression::class.java).filter {
+            it is LuaNameExpr || it is LuaIndexExpr
+        }.map { expr ->
+            val declaration = tree.find(expr)
+            val visible = mutableListOf<String>()
+
+            tree.walkUp(expr) {
+                visible.add("${it.name}@${it.psi.textOffset}")
+                true
+            }
+
+            "${expr.text}@${expr.textOffset} -> ${declaration?.let { "${it.name}@${it.psi.textOffset}" }} $visible"
+        }.toList()
+    }
+
+    /**
+     * Applies each edit (replacing the first occurrence of the first string with the second) to [code], checking the
+     * tree after each one.
+     */
+    private fun doTest(code: String, vararg edits: Pair<String, String>) {
+        val file = myFixture.configureByText("declarations.lua", code.trimIndent())
+        val tree = LuaDeclarationTree.get(file)
+        val document = myFixture.editor.document
+
+        edits.forEach { (from, to) ->
+            val offset = document.text.indexOf(from)
+            assertTrue("'$from' not found", offset >= 0)
+
+            WriteCommandAction.runWriteCommandAction(project) {
+                document.replaceString(offset, offset + from.length, to)
+                PsiDocumentManager.getInstance(project).commitDocument(document)
+            }
+
+            // The tree was updated in place, rather than discarded.
+            assertSame(tree, LuaDeclarationTree.get(file))
+
+            val rebuilt = PsiFileFactory.getInstance(project).createFileFromText("rebuilt.lua", LuaFileType.INSTANCE, file.text)
+            assertEquals(describe(rebuilt), describe(file))
+        }
+    }
+
+    fun `test edit nested block`() {
+        doTest("""
+            local a = 1
+            do
+                local b = a
+                do
+                    local c = b
+                    print(c)
+                end
+                print(b)
+            end
+            print(a)
+        """, "local c = b" to "local c, d = b, a\n        print(d)", "print(b)" to "local b = 2\n    print(b, a)")
+    }
+
+    fun `test edit function body`() {
+        doTest("""
+            local t = {}
+
+            local function f(p)
+                local x = p
+                return x
+            end
+
+            function t:m(q)
+                return self, q
+            end
+
+            print(f(t))
+        """, "local x = p" to "local x, y = p, t\n    x = y", "return self, q" to "local q = q\n    return q, self")
+    }
+
+    fun `test edit for loops`() {
+        doTest("""
+            local list = {}
+
+            for i = 1, 10 do
+                print(i, list)
+            end
+
+            for _, v in ipairs(list) do
+                print(v)
+            end
+        """, "print(i, list)" to "local list = i\n    print(list)", "print(v)" to "local w = v\n    print(w, _)")
+    }
+
+    fun `test edit repeat`() {
+        doTest("""
+            local done = false
+
+            repeat
+                local finished = done
+            until finished
+        """, "local finished = done" to "local finished, other = done, true", "until finished" to "until other")
+    }
+
+    fun `test delete scope`() {
+        doTest("""
+            local a = 1
+
+            local function f()
+                do
+                    local b = a
+                    print(b)
+                end
+
+                local c = a
+                print(c)
+            end
+        """, "do\n        local b = a\n        print(b)\n    end" to "", "print(c)" to "do local d = c end\n    print(c)")
+    }
+
+    fun `test inner scope fields`() {
+        doTest("""
+            local t = {}
+
+            do
+                t.f = 1
+            end
+
+            local function g()
+                t.g = 2
+            end
+
+            print(t.f, t.g, t.h)
+        """, "t.f = 1" to "t.h = 1", "t.g = 2" to "t.f = 2\n    t.g = 3", "t.g = 3" to "print(t.g)")
+    }
+}
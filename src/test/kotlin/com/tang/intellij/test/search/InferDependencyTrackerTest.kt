@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.test.search
+
+import com.intellij.openapi.command.WriteCommandAction
+import com.intellij.psi.PsiDocumentManager
+import com.intellij.psi.PsiFile
+import com.intellij.psi.util.PsiTreeUtil
+import com.tang.intellij.lua.ext.ILuaTypeInfer
+import com.tang.intellij.lua.psi.LuaIndexExpr
+import com.tang.intellij.lua.search.InferCache
+import com.tang.intellij.lua.search.InferDependencies
+import com.tang.intellij.lua.search.InferDependencyTracker
+import com.tang.intellij.lua.search.SearchContext
+import com.tang.intellij.test.LuaTestBase
+
+class InferDependencyTrackerTest : LuaTestBase() {
+    private lateinit var pointFile: PsiFile
+    private lateinit var otherFile: PsiFile
+    private lateinit var expr: LuaIndexExpr
+
+    override fun setUp() {
+        super.setUp()
+
+        pointFile = myFixture.addFileToProject("point.lua", """
+            ---@class Point
+            ---@field x number
+            local Point = {}
+        """.trimIndent())
+
+        otherFile = myFixture.addFileToProject("other.lua", """
+            ---@class Other
+            ---@field y number
+            local Other = {}
+        """.trimIndent())
+
+        val file = myFixture.configureByText("main.lua", """
+            ---@type Point
+            local p
+
+            print(p.x)
+        """.trimIndent())
+
+        expr = PsiTreeUtil.findChildOfType(file, LuaIndexExpr::class.java)!!
+    }
+
+    private fun edit(file: PsiFile, from: String, to: String) {
+        val documentManager = PsiDocumentManager.getInstance(project)
+        val document = documentManager.getDocument(file)!!
+
+        WriteCommandAction.runWriteCommandAction(project) {
+            val offset = document.text.indexOf(from)
+            assertTrue("'$from' not found", offset >= 0)
+            document.replaceString(offset, offset + from.length, to)
+            documentManager.commitDocument(document)
+        }
+    }
+
+    fun `test edited dependency invalidates snapshot`() {
+        val tracker = InferDependencyTracker.getInstance(project)
+        val (ty, dependencies) = InferDependencies.track {
+            SearchContext.infer(SearchContext.get(project), expr)
+        }
+
+        assertEquals("number", ty?.displayName)
+
+        val snapshot = tracker.snapshot(dependencies)
+
+        // An unrelated class is not depended upon.
+        edit(otherFile, "---@field y number", "---@field y string")
+        assertTrue(tracker.isValid(snapshot))
+
+        edit(pointFile, "---@field x number", "---@field x string")
+        assertFalse(tracker.isValid(snapshot))
+    }
+
+    fun `test infer cache recomputes only when dependencies change`() {
+        var inferences = 0
+
+        fun infer(): String? {
+            val context = SearchContext.get(project)
+            return InferCache.getOrInfer(context, expr) {
+                inferences++
+                ILuaTypeInfer.infer(context, expr)
+            }?.displayName
+        }
+
+        assertEquals("number", infer())
+        assertEquals("number", infer())
+        assertEquals(1, inferences)
+
+        edit(otherFile, "---@field y number", "---@field y string")
+        assertEquals("number", infer())
+        assertEquals(1, inferences)
+
+        edit(pointFile, "---@field x number", "---@field x string")
+        assertEquals("string", infer())
+        assertEquals(2, inferences)
+
+        assertEquals("string", infer())
+        assertEquals(2, inferences)
+    }
+}
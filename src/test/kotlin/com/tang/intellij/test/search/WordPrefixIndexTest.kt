@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.test.search
+
+import com.tang.intellij.lua.search.WordPrefixIndex
+import com.tang.intellij.test.LuaTestBase
+
+class WordPrefixIndexTest : LuaTestBase() {
+    private fun words(name: String): List<String> {
+        val starts = WordPrefixIndex.wordStarts(name)
+        return starts.mapIndexed { i, start ->
+            name.substring(start, if (i + 1 < starts.size) starts[i + 1] else name.length).trimEnd('_', '.')
+        }
+    }
+
+    private fun WordPrefixIndex<String>.find(prefix: String): List<String> {
+        val values = mutableListOf<String>()
+
+        process(prefix) {
+            values.add(it)
+            true
+        }
+
+        return values
+    }
+
+    private fun createIndex(vararg names: String): WordPrefixIndex<String> {
+        val index = WordPrefixIndex<String>()
+        names.forEach { index.add(it, it) }
+        return index
+    }
+
+    fun `test word starts`() {
+        assertOrderedEquals(words("name"), "name")
+        assertOrderedEquals(words("camelCase"), "camel", "Case")
+        assertOrderedEquals(words("snake_case_name"), "snake", "case", "name")
+        assertOrderedEquals(words("module.path"), "module", "path")
+        assertOrderedEquals(words("vector3d"), "vector", "3", "d")
+        assertOrderedEquals(words("_private"), "", "private")
+    }
+
+    fun `test acronym word starts`() {
+        assertOrderedEquals(words("HTTPServer"), "HTTP", "Server")
+        assertOrderedEquals(words("getHTTPServer"), "get", "HTTP", "Server")
+        assertOrderedEquals(words("parseURL"), "parse", "URL")
+        assertOrderedEquals(words("URL"), "URL")
+    }
+
+    fun `test process by word prefix`() {
+        val index = createIndex("HTTPServer", "httpClient", "server_name", "print")
+
+        assertSameElements(index.find("ser"), "HTTPServer", "server_name")
+        assertSameElements(index.find("Http"), "HTTPServer", "httpClient")
+        assertSameElements(index.find("cl"), "httpClient")
+        assertSameElements(index.find("name"), "server_name")
+        assertEmpty(index.find("x"))
+        assertSameElements(index.find(""), "HTTPServer", "httpClient", "server_name", "print")
+    }
+
+    fun `test process by camel humps`() {
+        val index = createIndex("HTTPServer", "httpClient", "server_name", "print")
+
+        assertSameElements(index.find("hS"), "HTTPServer")
+        assertSameElements(index.find("httpServ"), "HTTPServer")
+        assertSameElements(index.find("hc"), "httpClient")
+        assertSameElements(index.find("sn"), "server_name")
+        assertSameElements(index.find("s_n"), "server_name")
+        assertEmpty(index.find("sx"))
+    }
+
+    fun `test process after merge`() {
+        val names = (0 until 200).map { "name$it" } + (0 until 200).map { "value$it" }
+        val index = createIndex(*names.toTypedArray())
+
+        assertEquals(200, index.find("na").size)
+
+        (0 until 100).forEach { index.remove("name$it", "name$it") }
+        index.add("nameless", "nameless")
+
+        assertEquals(101, index.find("na").size)
+        assertSameElements(index.find("nameL"), "nameless")
+        assertSameElements(index.find("name1"), (100 until 200).map { "name$it" })
+        assertEquals(200, index.find("val").size)
+    }
+
+    fun `test values processed once`() {
+        // "serverServer" is stored under both of its words, and "ser" matches each of them.
+        val index = createIndex("serverServer", "serverServer")
+
+        assertOrderedEquals(index.find("ser"), "serverServer")
+        assertFalse(index.isEmpty)
+    }
+
+    fun `test remove`() {
+        val index = createIndex("HTTPServer", "httpClient")
+
+        index.remove("HTTPServer", "HTTPServer")
+
+        assertEmpty(index.find("ser"))
+        assertSameElements(index.find("http"), "httpClient")
+
+        index.remove("httpClient", "httpClient")
+
+        assertEmpty(index.find(""))
+        assertTrue(index.isEmpty)
+    }
+}
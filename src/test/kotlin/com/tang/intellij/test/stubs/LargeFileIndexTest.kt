@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.test.stubs
+
+import com.tang.intellij.lua.project.LuaSettings
+import com.tang.intellij.lua.psi.LuaPsiFile
+import com.tang.intellij.lua.search.SearchContext
+import com.tang.intellij.lua.stubs.index.LuaLargeFileIndex
+import com.tang.intellij.test.LuaTestBase
+
+class LargeFileIndexTest : LuaTestBase() {
+    private var savedThreshold = 0
+
+    override fun setUp() {
+        super.setUp()
+        savedThreshold = LuaSettings.instance.tooLargerFileThreshold
+        LuaSettings.instance.tooLargerFileThreshold = 1
+    }
+
+    override fun tearDown() {
+        try {
+            LuaSettings.instance.tooLargerFileThreshold = savedThreshold
+        } finally {
+            super.tearDown()
+        }
+    }
+
+    // Pads the file beyond the (1KB) threshold.
+    private fun configureLargeFile(code: String): LuaPsiFile {
+        val text = code.trimIndent() + "\n-- " + "x".repeat(2048) + "\n"
+        return myFixture.configureByText("large_file.lua", text) as LuaPsiFile
+    }
+
+    private fun getFields(typeName: String): List<String> {
+        val fields = mutableListOf<String>()
+
+        LuaLargeFileIndex.processFields(SearchContext.get(project), typeName) {
+            fields.add(it)
+            true
+        }
+
+        return fields
+    }
+
+    private fun getReturnedFields(file: LuaPsiFile): List<String> {
+        val typeName = LuaLargeFileIndex.getReturnTypeName(file)
+        assertNotNull(typeName)
+        return getFields(typeName!!)
+    }
+
+    fun `test returned table constructor`() {
+        val file = configureLargeFile("""
+            return {
+                a = 1,
+                ["b"] = { nested = 2 },
+                c = function() end
+            }
+        """)
+
+        assertSameElements(getReturnedFields(file), "a", "b", "c")
+    }
+
+    fun `test local table fields`() {
+        val file = configureLargeFile("""
+            local t = {}
+            t.x = 1
+            t.y = { z = 2 }
+
+            function t.f() end
+
+            function t:g() end
+
+            return t
+        """)
+
+        assertSameElements(getReturnedFields(file), "x", "y", "f", "g")
+    }
+
+    fun `test class fields`() {
+        configureLargeFile("""
+            ---@class Base
+            local Base = { a = 1 }
+
+            ---@class Derived : Base
+            local Derived = { b = 2 }
+            Derived.c = 3
+
+            function Derived:d() end
+        """)
+
+        assertSameElements(getFields("Base"), "a")
+        assertSameElements(getFields("Derived"), "b", "c", "d", "a")
+    }
+
+    fun `test small file not indexed`() {
+        val file = myFixture.configureByText("small_file.lua", "return { a = 1 }") as LuaPsiFile
+        assertNull(LuaLargeFileIndex.getReturnTypeName(file))
+    }
+}
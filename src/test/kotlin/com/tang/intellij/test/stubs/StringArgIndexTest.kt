@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.test.stubs
+
+import com.intellij.psi.PsiFile
+import com.intellij.psi.util.PsiTreeUtil
+import com.intellij.util.indexing.FileBasedIndex
+import com.tang.intellij.lua.psi.*
+import com.tang.intellij.lua.stubs.index.LuaStringArgIndex
+import com.tang.intellij.test.LuaTestBase
+
+class StringArgIndexTest : LuaTestBase() {
+    private data class Arg(val name: String, val argIndex: Int, val value: String, val offset: Int) {
+        override fun toString() = "$name[$argIndex] = \"$value\" @$offset"
+    }
+
+    private fun indexedArgs(file: PsiFile): List<Arg> {
+        val data = FileBasedIndex.getInstance().getFileData(LuaStringArgIndex.NAME, file.virtualFile, project)
+
+        return data.flatMap { (name, occurrence) ->
+            occurrence.args.map { Arg(name, it.argIndex, it.argString, it.offset) }
+        }.sortedBy { it.offset }
+    }
+
+    // What the index recorded when it was computed from PSI.
+    private fun psiArgs(file: PsiFile): List<Arg> {
+        val args = mutableListOf<Arg>()
+
+        PsiTreeUtil.findChildrenOfType(file, LuaCallExpr::class.java).forEach { call ->
+            val isColon = call.isMethodColonCall
+            val name = call.expression.name
+
+            call.argList.forEachIndexed { index, arg ->
+                if (name != null && arg is LuaLiteralExpr && arg.kind == LuaLiteralKind.String) {
+                    val value = arg.stringValue
+
+                    if (value.length in 2..1024) {
+                        args.add(Arg(name, if (isColon) index + 1 else index, value, arg.node.startOffset))
+                    }
+                }
+            }
+        }
+
+        return args.sortedBy { it.offset }
+    }
+
+    private fun doTest(code: String, vararg expected: String) {
+        val file = myFixture.configureByText("string_args.lua", code.trimIndent())
+        val indexed = indexedArgs(file)
+
+        assertEquals(psiArgs(file), indexed)
+        assertOrderedEquals(indexed.map { "${it.name}[${it.argIndex}] = ${it.value}" }, *expected)
+    }
+
+    fun `test call without parentheses`() {
+        doTest("""
+            f "str"
+            f [[long]]
+            t.f "field"
+        """, "f[0] = str", "f[0] = long", "f[0] = field")
+    }
+
+    fun `test string keyed call`() {
+        doTest("""
+            t["name"]("str")
+            t["name"] "bare"
+            t[key]("unnamed")
+        """, "name[0] = str", "name[0] = bare")
+    }
+
+    fun `test colon call`() {
+        doTest("""
+            obj:m("first", "second")
+            obj.m("first", "second")
+            obj:m "bare"
+        """, "m[1] = first", "m[2] = second", "m[0] = first", "m[1] = second", "m[1] = bare")
+    }
+
+    fun `test argument index`() {
+        doTest("""
+            f(1, "second", x, "fourth")
+            f(..., "second")
+            f({ "ignored" }, "second")
+        """, "f[1] = second", "f[3] = fourth", "f[1] = second", "f[1] = second")
+    }
+
+    fun `test nested calls`() {
+        doTest("""
+            f(g("inner"), "outer")
+            f(g("a1", h("b1")), "c1")
+        """, "g[0] = inner", "f[1] = outer", "g[0] = a1", "h[0] = b1", "f[1] = c1")
+    }
+
+    fun `test parenthesized and concatenated arguments`() {
+        doTest("""
+            f(("paren"))
+            f("left" .. "right")
+            f("left" .. x, "ok")
+            f(x .. "right")
+            f(t["key"])
+        """, "f[1] = ok")
+    }
+
+    fun `test table constructors`() {
+        doTest("""
+            local t = { "value", key = "value", ["key"] = "value" }
+            f { "table" }
+            f({ name = "nested" }, g("inner"))
+        """, "g[0] = inner")
+    }
+
+    fun `test function definitions`() {
+        doTest("""
+            function t.f(a, b)
+                return "returned"
+            end
+
+            local function g(a)
+            end
+
+            function t:m(...)
+                local s = "local"
+            end
+        """)
+    }
+
+    fun `test length bounds`() {
+        val long = "x".repeat(1024)
+        val tooLong = "y".repeat(1025)
+
+        doTest("""
+            f("")
+            f("a")
+            f("ab")
+            f("$long")
+            f("$tooLong")
+        """, "f[0] = ab", "f[0] = $long")
+    }
+}
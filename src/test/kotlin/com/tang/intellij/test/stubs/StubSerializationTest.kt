@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.test.stubs
+
+import com.intellij.psi.stubs.ObjectStubSerializer
+import com.intellij.psi.stubs.SerializationManagerEx
+import com.intellij.psi.stubs.StubElement
+import com.intellij.psi.stubs.StubInputStream
+import com.intellij.psi.stubs.StubOutputStream
+import com.intellij.util.io.AbstractStringEnumerator
+import com.tang.intellij.lua.lang.LuaParserDefinition
+import com.tang.intellij.lua.stubs.LuaClassMethodDefStatStub
+import com.tang.intellij.lua.stubs.LuaDocTagFieldStub
+import com.tang.intellij.lua.ty.Ty
+import com.tang.intellij.test.LuaTestBase
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+
+class StubSerializationTest : LuaTestBase() {
+    private class TestNames : AbstractStringEnumerator {
+        private val names = mutableListOf<String>()
+
+        override fun enumerate(value: String?): Int {
+            if (value == null) {
+                return 0
+            }
+
+            val index = names.indexOf(value)
+            return if (index >= 0) index + 1 else names.let { it.add(value); it.size }
+        }
+
+        override fun valueOf(idx: Int): String? {
+            return if (idx == 0) null else names[idx - 1]
+        }
+
+        override fun markCorrupted() {}
+
+        override fun isDirty(): Boolean {
+            return false
+        }
+
+        override fun force() {}
+
+        override fun close() {}
+    }
+
+    private val sharedTypes = """
+        ---@class Shared
+        ---@field a Shared|string[]
+        ---@field b Shared|string[]
+        ---@field [number] fun(value: Shared|string[]): Shared|string[]
+        local Shared = {}
+
+        ---@overload fun(value: Shared|string[]): Shared|string[]
+        ---@param value Shared|string[]
+        ---@return Shared|string[]
+        function Shared:method(value)
+        end
+    """
+
+    private fun buildStubTree(): StubElement<*> {
+        val file = myFixture.configureByText("stub_types.lua", sharedTypes.trimIndent())
+        return LuaParserDefinition.FILE.builder.buildStubTree(file)
+    }
+
+    private fun collectStubs(root: StubElement<*>): List<StubElement<*>> {
+        val stubs = mutableListOf<StubElement<*>>()
+
+        fun collect(stub: StubElement<*>) {
+            if (stub is LuaDocTagFieldStub || stub is LuaClassMethodDefStatStub) {
+                stubs.add(stub)
+            }
+
+            stub.childrenStubs.forEach { collect(it) }
+        }
+
+        collect(root)
+        return stubs
+    }
+
+    private fun describeTypes(stub: StubElement<*>): String {
+        return when (stub) {
+            is LuaDocTagFieldStub -> "${stub.name}: [${stub.indexTy?.displayName}] ${stub.valueTy.displayName}"
+            is LuaClassMethodDefStatStub -> "${stub.name}: ${stub.returnDocTy?.displayName} ${stub.overloads.joinToString { it.displayName }}"
+            else -> throw IllegalArgumentException()
+        }
+    }
+
+    private fun assertSameTypes(expected: List<StubElement<*>>, actual: List<StubElement<*>>) {
+        assertEquals(expected.size, actual.size)
+
+        // Types are decoded in the reverse of the order they were written, as the platform may decode stubs in any order.
+        expected.indices.reversed().forEach {
+            assertEquals(describeTypes(expected[it]), describeTypes(actual[it]))
+        }
+    }
+
+    fun `test stub tree round trip`() {
+        val stubTree = buildStubTree()
+        val serializationManager = SerializationManagerEx.getInstanceEx()
+
+        val bytes = ByteArrayOutputStream()
+        serializationManager.serialize(stubTree, bytes)
+
+        val deserialized = serializationManager.deserialize(ByteArrayInputStream(bytes.toByteArray())) as StubElement<*>
+        val stubs = collectStubs(stubTree)
+
+        assertEquals(4, stubs.size)
+        assertSameTypes(stubs, collectStubs(deserialized))
+    }
+
+    fun `test individual stub round trip`() {
+        val stubs = collectStubs(buildStubTree())
+
+        // Each stub is written to its own stream, and read without any of the others having been read.
+        val deserialized = stubs.map { stub ->
+            @Suppress("UNCHECKED_CAST")
+            val serializer = stub.stubType as ObjectStubSerializer<StubElement<*>, StubElement<*>>
+            val names = TestNames()
+            val bytes = ByteArrayOutputStream()
+
+            serializer.serialize(stub, StubOutputStream(bytes, names))
+            serializer.deserialize(StubInputStream(ByteArrayInputStream(bytes.toByteArray()), names), stub.parentStub)
+        }
+
+        assertSameTypes(stubs, deserialized)
+    }
+
+    fun `test type frame overhead`() {
+        val fieldStubs = collectStubs(buildStubTree()).filterIsInstance<LuaDocTagFieldStub>()
+
+        assertEquals(3, fieldStubs.size)
+
+        fieldStubs.forEach { stub ->
+            val ty = stub.valueTy
+            val names = TestNames()
+
+            // Encoded inline, as a type nested within another type's frame is.
+            val inlineBytes = ByteArrayOutputStream()
+            Ty.serializeEntry(ty, StubOutputStream(inlineBytes, names))
+
+            val framedBytes = ByteArrayOutputStream()
+            Ty.serialize(ty, StubOutputStream(framedBytes, names))
+
+            // Small enough that every varint (including name ids) is a single byte.
+            assertTrue(inlineBytes.size() < 192)
+
+            // A frame adds only its name count, one id per distinct name, and the length of its encoding.
+            val nameCount = framedBytes.toByteArray()[0].toInt()
+            assertEquals(describeTypes(stub), inlineBytes.size() + 1 + nameCount + 1, framedBytes.size())
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.test.ty
+
+import com.tang.intellij.lua.search.SearchContext
+import com.tang.intellij.lua.ty.*
+import com.tang.intellij.test.LuaTestBase
+
+class TyUnionTest : LuaTestBase() {
+    private val context get() = SearchContext.get(project)
+
+    override fun setUp() {
+        super.setUp()
+
+        myFixture.addFileToProject("classes.lua", """
+            ---@class Base
+            local Base = {}
+
+            ---@class Derived : Base
+            local Derived = {}
+
+            ---@class Unrelated
+            local Unrelated = {}
+
+            ---@shape BaseShape
+            ---@field a number
+
+            ---@shape DerivedShape : BaseShape
+            ---@field b number
+        """.trimIndent())
+    }
+
+    private fun string(value: String) = TyPrimitiveLiteral.getTy(TyPrimitiveKind.String, value)
+
+    private fun number(value: String) = TyPrimitiveLiteral.getTy(TyPrimitiveKind.Number, value)
+
+    private fun union(vararg tys: ITy) = TyUnion.union(context, tys.asList())
+
+    private fun children(ty: ITy): Set<ITy> {
+        return if (ty is TyUnion) ty.getChildTypes().toSet() else setOf(ty)
+    }
+
+    private fun <T> permutations(items: List<T>): List<List<T>> {
+        if (items.size <= 1) {
+            return listOf(items)
+        }
+
+        return items.indices.flatMap { i ->
+            permutations(items.subList(0, i) + items.subList(i + 1, items.size)).map { listOf(items[i]) + it }
+        }
+    }
+
+    /**
+     * Asserts that every ordering of [tys] reduces to exactly [expected].
+     */
+    private fun assertUnion(expected: Set<ITy>, vararg tys: ITy) {
+        permutations(tys.asList()).forEach {
+            assertEquals("Reduction of $it", expected, children(TyUnion.union(context, it)))
+        }
+    }
+
+    fun `test literal only union`() {
+        assertUnion(setOf(string("a"), string("b")), string("a"), string("b"), string("a"))
+        assertUnion(setOf(string("1"), number("1")), string("1"), number("1"))
+    }
+
+    fun `test true and false collapse to boolean`() {
+        assertUnion(setOf(Primitives.BOOLEAN), Primitives.TRUE, Primitives.FALSE)
+        assertUnion(setOf(Primitives.BOOLEAN), Primitives.TRUE, Primitives.FALSE, Primitives.TRUE)
+        assertUnion(setOf(Primitives.BOOLEAN), Primitives.TRUE, Primitives.BOOLEAN)
+        assertUnion(setOf(Primitives.TRUE, Primitives.NIL), Primitives.TRUE, Primitives.NIL)
+    }
+
+    fun `test primitive subsumes its literals`() {
+        assertUnion(setOf(Primitives.STRING), string("a"), Primitives.STRING, string("b"))
+        assertUnion(setOf(Primitives.NUMBER, string("a")), number("1"), string("a"), Primitives.NUMBER)
+        assertUnion(setOf(Primitives.STRING, Primitives.NUMBER), string("a"), number("1"), Primitives.STRING, Primitives.NUMBER)
+    }
+
+    fun `test class subsumption`() {
+        val base = Ty.create("Base")
+        val derived = Ty.create("Derived")
+        val unrelated = Ty.create("Unrelated")
+
+        assertUnion(setOf(base), base, derived)
+        assertUnion(setOf(base, unrelated), derived, unrelated, base)
+        assertUnion(setOf(base, Primitives.STRING), derived, string("a"), Primitives.STRING, base)
+    }
+
+    fun `test shape subsumption`() {
+        val baseShape = Ty.create("BaseShape")
+        val derivedShape = Ty.create("DerivedShape")
+
+        assertUnion(setOf(baseShape), derivedShape, baseShape)
+        assertUnion(setOf(baseShape, Primitives.NIL), derivedShape, Primitives.NIL, baseShape)
+    }
+
+    fun `test nested unions are flattened`() {
+        val inner = union(string("a"), Primitives.NUMBER)
+        val outer = union(inner, union(string("b"), Primitives.NIL))
+
+        assertEquals(setOf(string("a"), string("b"), Primitives.NUMBER, Primitives.NIL), children(outer))
+        assertTrue((outer as TyUnion).getChildTypes().none { it is TyUnion })
+
+        assertUnion(setOf(Primitives.STRING, Primitives.NUMBER), inner, Primitives.STRING)
+        assertUnion(setOf(Primitives.BOOLEAN, Primitives.NUMBER), union(Primitives.TRUE, Primitives.NUMBER), Primitives.FALSE)
+
+        val base = Ty.create("Base")
+        assertUnion(setOf(base, Primitives.NIL), union(Ty.create("Derived"), Primitives.NIL), base)
+    }
+
+    fun `test single and empty reductions`() {
+        assertSame(Primitives.STRING, union(Primitives.STRING, string("a")))
+        assertSame(Primitives.VOID, union())
+        assertSame(Primitives.VOID, union(Primitives.VOID))
+    }
+}